@@ -12,27 +12,38 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 import java.util.stream.Collectors;
 
+import umu.software.activityrecognition.data.dataframe.AsOfJoin;
 import umu.software.activityrecognition.data.dataframe.DataFrame;
 
 
 /**
  * Class managing a collection of data accumulators. Supports a Map interface to add/remove accumulators
  * and provides, through getLifecycle() a LifecycleRegistry that can be utilized to start/stop the
- * accumulators all-together. Accumulators start/stop recording with ON_START/ON_STOP events
+ * accumulators all-together. Accumulators start/stop recording with ON_START/ON_STOP events.
+ * A global memory budget can be enforced over the accumulators through a MemoryPolicy
  */
 public class AccumulatorsMap implements LifecycleOwner, Map<Object, DataAccumulator>
 {
-    Map<Object, DataAccumulator> accumulators = Maps.newHashMap();
+    public static final long BUDGET_CHECK_PERIOD_MILLIS = 1000;
+
+    // read by the budget check outside of the main thread
+    Map<Object, DataAccumulator> accumulators = Maps.newConcurrentMap();
     Map<Object, LifecycleEventObserver> observers = Maps.newHashMap();
 
     private final LifecycleRegistry lifecycle = new LifecycleRegistry(this);
 
+    private long memoryBudget = 0;
+    private MemoryPolicy memoryPolicy;
+    private ScheduledFuture<?> budgetCheck;
+
     /**
      * LifecycleRegistry that controls the start and stopping of accumulators through ON_START/ON_STOP events
      * @return LifecycleRegistry that controls the start and stopping of accumulators
@@ -202,6 +213,83 @@ public class AccumulatorsMap implements LifecycleOwner, Map<Object, DataAccumula
         return get(key).getDataFrame();
     }
 
+    /**
+     * Aligns the dataframes of some accumulators by time. See AsOfJoin
+     * @param join the join to perform
+     * @param leftKey key of the accumulator whose rows drive the join
+     * @param otherKeys keys of the accumulators to align
+     * @return the aligned dataframe, or null if any of the accumulators is missing
+     */
+    public DataFrame joinDataFrames(AsOfJoin join, Object leftKey, Object... otherKeys)
+    {
+        DataFrame left = getDataFrame(leftKey);
+        DataFrame[] others = new DataFrame[otherKeys.length];
+        for (int i = 0; i < otherKeys.length; i++)
+            others[i] = getDataFrame(otherKeys[i]);
+        if (left == null || Arrays.asList(others).contains(null))
+            return null;
+        return join.join(left, others);
+    }
+
+    /**
+     * Returns an estimate of the memory held by all accumulators. See DataAccumulator.estimateBytes()
+     * @return the estimated number of bytes
+     */
+    public long estimateBytes()
+    {
+        long bytes = 0;
+        for (DataAccumulator acc : accumulators.values())
+            bytes += acc.estimateBytes();
+        return bytes;
+    }
+
+
+    /**
+     * Sets a global memory budget for the accumulators. The budget is checked every
+     * BUDGET_CHECK_PERIOD_MILLIS and the policy is applied while it is exceeded
+     * @param bytes the memory budget, or a non-positive number to disable the budget
+     * @param policy the policy to apply. Required if the budget is positive
+     */
+    public synchronized void setMemoryBudget(long bytes, @Nullable MemoryPolicy policy)
+    {
+        if (bytes > 0 && policy == null)
+            throw new IllegalArgumentException("A memory policy is required to set a memory budget");
+        if (budgetCheck != null)
+            budgetCheck.cancel(false);
+        budgetCheck = null;
+        memoryBudget = Math.max(0, bytes);
+        memoryPolicy = policy;
+        if (memoryBudget > 0)
+            budgetCheck = DataAccumulator.scheduleAtFixedRate(this::checkMemoryBudget, BUDGET_CHECK_PERIOD_MILLIS);
+    }
+
+
+    /**
+     * Returns the global memory budget of the accumulators
+     * @return the memory budget, or 0 if there is none
+     */
+    public synchronized long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+
+    /**
+     * Checks the memory held by the accumulators against the budget and applies the memory policy.
+     * Called periodically once a budget is set
+     */
+    public synchronized void checkMemoryBudget()
+    {
+        if (memoryBudget <= 0)
+            return;
+        long used = estimateBytes();
+        if (used > memoryBudget)
+            memoryPolicy.onOverBudget(this, used, memoryBudget);
+        else
+            memoryPolicy.onWithinBudget(this, used, memoryBudget);
+    }
+
+
     /**
      * Resets all accumulators' dataframes
      * @return number of reset accumulators
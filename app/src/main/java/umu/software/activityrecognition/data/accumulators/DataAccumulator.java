@@ -2,14 +2,25 @@ package umu.software.activityrecognition.data.accumulators;
 
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.RunningStatistics;
+import umu.software.activityrecognition.data.dataframe.Schema;
+import umu.software.activityrecognition.data.dataframe.SlotRow;
+import umu.software.activityrecognition.data.dataframe.columns.ChunkedColumn;
+import umu.software.activityrecognition.data.persistence.SegmentFile;
 import umu.software.activityrecognition.data.suppliers.DataSupplier;
 import umu.software.activityrecognition.shared.util.FunctionLock;
 
@@ -21,6 +32,12 @@ public class DataAccumulator
 {
     public static final int DEFAULT_NUM_THREADS = 4;
 
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private static final ThreadFactory THREAD_FACTORY = new ThreadFactory()
     {
         final AtomicInteger n = new AtomicInteger(0);
@@ -40,11 +57,33 @@ public class DataAccumulator
     private final FunctionLock lock = FunctionLock.newInstance();
     private final DataFrame dataframe = new DataFrame();
     private DataSupplier supplier;
+    private SlotRow slotRow;
 
 
-    private int windowSize = -1;
     private long delayMillis = 0L;
 
+    // spill mode: sealed rows are moved to segment files once the dataframe exceeds the budget
+    private long memoryBudget = 0;
+    private File spillDirectory;
+    private final List<File> segments = new ArrayList<>();
+    private int spilledRows = 0;
+    private boolean spilling = false;
+    // incremented whenever in-memory rows are removed other than by a spill
+    private long removals = 0;
+
+    // backpressure: paused accumulators dispose their supplier until they are resumed
+    private volatile int priority = PRIORITY_NORMAL;
+    private boolean paused = false;
+    private boolean resumeRecording = false;
+
+    // write-ahead log: number of in-memory rows, from the first one, already taken by the log
+    private int loggedRows = 0;
+
+    // append rate, measured over windows of RATE_WINDOW_NANOS
+    private long rateWindowStart = System.nanoTime();
+    private int rateWindowRows = 0;
+    private double appendRate = 0;
+
 
     public DataAccumulator() {}
 
@@ -88,29 +127,359 @@ public class DataAccumulator
     private Runnable getAppendRowTask()
     {
         return () -> {
-            DataFrame.Row row = new DataFrame.Row();
-            if (supplier == null || !supplier.isReady())
+            DataSupplier sup = supplier;
+            if (sup == null || !sup.isReady())
                 return;
-            supplier.accept(row);
-            lock.lock();
-            if (row.size() == 1)
-                dataframe.appendRow(row);
-            if (row.size() > 0)
-                dataframe.appendRow(row);
-
-            if (windowSize > 0)
-                while (dataframe.countRows() > windowSize)
-                    dataframe.popFirstRow();
-                lock.unlock();
+            do
+                appendRow(sup);
+            while (sup.hasPendingRows());
         };
     }
 
 
     /**
-     * Start the event recordings. Has no effects if supplier is null
+     * Reads a row from the supplier and appends it to the dataframe
+     * @param sup the supplier to read from
+     */
+    private void appendRow(DataSupplier sup)
+    {
+        Schema schema = sup.getSchema();
+        if (schema != null)
+        {
+            appendSlotRow(sup, schema);
+            return;
+        }
+        DataFrame.Row row = new DataFrame.Row();
+        sup.accept(row);
+        lock.lock();
+        int rows = dataframe.countRows();
+        if (row.size() == 1)
+            dataframe.appendRow(row);
+        if (row.size() > 0)
+        {
+            dataframe.appendRow(row);
+            countAppendedRows(rows, (row.size() == 1)? 2 : 1);
+        }
+        lock.unlock();
+        spillIfOverBudget();
+    }
+
+
+    /**
+     * Appends a row of the supplier's schema, reusing the same slot row across readings
+     * @param sup the supplier to read from
+     * @param schema the schema of the supplier
+     */
+    private void appendSlotRow(DataSupplier sup, Schema schema)
+    {
+        SlotRow row = slotRow;
+        if (row == null || row.getSchema() != schema)
+            row = slotRow = schema.newRow();
+        else
+            row.clear();
+        sup.accept(row);
+        lock.lock();
+        if (row.count() > 0)
+        {
+            int rows = dataframe.countRows();
+            dataframe.appendRow(row);
+            countAppendedRows(rows, 1);
+        }
+        lock.unlock();
+        spillIfOverBudget();
+    }
+
+
+    /**
+     * Updates the append rate after rows are appended, and the logged rows if windowed dataframes
+     * evicted rows to make room for them. Must be called holding the lock
+     * @param rowsBefore number of rows of the dataframe before appending
+     * @param appended number of appended rows
+     */
+    private void countAppendedRows(int rowsBefore, int appended)
+    {
+        int evicted = rowsBefore + appended - dataframe.countRows();
+        if (evicted > 0)
+            countRemovedRows(evicted);
+        rateWindowRows += appended;
+        long elapsed = System.nanoTime() - rateWindowStart;
+        if (elapsed < RATE_WINDOW_NANOS)
+            return;
+        appendRate = rateWindowRows * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        rateWindowStart += elapsed;
+        rateWindowRows = 0;
+    }
+
+
+    /**
+     * Updates the logged rows after the first rows of the dataframe are removed. Must be called
+     * holding the lock
+     * @param rows number of removed rows
+     */
+    private void countRemovedRows(int rows)
+    {
+        loggedRows = Math.max(0, loggedRows - rows);
+    }
+
+
+    /**
+     * Moves the sealed rows of the dataframe to a new segment file if the dataframe exceeds the
+     * memory budget. Must be called without holding the lock: the sealed rows are snapshotted under
+     * the lock and written outside of it, then removed from memory only if the segment was written
+     * and no rows were removed in the meantime. If the segment can't be written the rows are kept
+     * in memory and the spill mode is disabled
+     */
+    private void spillIfOverBudget()
+    {
+        DataFrame snapshot;
+        int rows;
+        long removalsBefore;
+        String prefix;
+        File directory;
+        lock.lock();
+        try
+        {
+            if (spilling || memoryBudget <= 0 || dataframe.estimateBytes() <= memoryBudget)
+                return;
+            rows = dataframe.sealedRows();
+            if (rows == 0)
+                return;
+            snapshot = dataframe.snapshot();
+            removalsBefore = removals;
+            prefix = segmentPrefix();
+            directory = spillDirectory;
+            spilling = true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        File segment = null;
+        boolean written = false;
+        try
+        {
+            segment = File.createTempFile(prefix, ".seg", directory);
+            SegmentFile.write(snapshot, 0, rows, segment);
+            written = true;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+
+        lock.lock();
+        try
+        {
+            spilling = false;
+            if (!written)
+                memoryBudget = 0;
+            else if (removals == removalsBefore)
+            {
+                segments.add(segment);
+                dataframe.removeFirstRows(rows);
+                countRemovedRows(rows);
+                spilledRows += rows;
+                return;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (segment != null && !segment.delete())
+            segment.deleteOnExit();
+    }
+
+
+    private String segmentPrefix()
+    {
+        // temporary file prefixes must be at least 3 characters long
+        String name = dataframe.getName().replaceAll("[^A-Za-z0-9_-]", "_");
+        return String.format("%s_", name.substring(0, Math.min(name.length(), 32)));
+    }
+
+
+    private void deleteSegment(int index)
+    {
+        if (index < 0 || index >= segments.size())
+            return;
+        File segment = segments.remove(index);
+        if (segment.exists() && !segment.delete())
+            segment.deleteOnExit();
+    }
+
+
+    /**
+     * Sets the maximum memory of the accumulated dataframe. When the estimated size of the
+     * dataframe exceeds it, its sealed rows (see DataFrame.sealedRows()) are flushed to segment files
+     * in the given directory and removed from memory. getDataFrame() and countReadings() include
+     * the spilled rows. Windowed accumulators keep all their rows in memory
+     * @param bytes the memory budget, or a non-positive number to keep all rows in memory
+     * @param directory directory of the segment files. Created if missing
+     */
+    public synchronized void setMemoryBudget(long bytes, @Nullable File directory)
+    {
+        if (bytes > 0 && directory == null)
+            throw new IllegalArgumentException("A spill directory is required to set a memory budget");
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException(String.format("Cannot create the spill directory %s", directory));
+        lock.lock();
+        memoryBudget = Math.max(0, bytes);
+        spillDirectory = directory;
+        lock.unlock();
+    }
+
+
+    /**
+     * Returns the number of rows that were moved to segment files
+     * @return the number of spilled rows
+     */
+    public synchronized int countSpilledReadings()
+    {
+        return lock.withLock(() -> spilledRows);
+    }
+
+
+    /**
+     * Returns an estimate of the memory held by the accumulated rows, excluding the spilled ones.
+     * See DataFrame.estimateBytes()
+     * @return the estimated number of bytes
+     */
+    public synchronized long estimateBytes()
+    {
+        return lock.withLock(dataframe::estimateBytes);
+    }
+
+
+    /**
+     * Returns the number of rows appended per second, measured over the last second
+     * @return the append rate in rows per second
+     */
+    public synchronized double getAppendRate()
+    {
+        return lock.withLock(() -> {
+            long elapsed = System.nanoTime() - rateWindowStart;
+            // no row closed the last window: rows stopped or slowed down
+            if (elapsed >= 2 * RATE_WINDOW_NANOS)
+                return rateWindowRows * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            return appendRate;
+        });
+    }
+
+
+    /**
+     * Sets the priority of the accumulator, used by memory policies to choose which accumulators
+     * to pause or trim first. Default is PRIORITY_NORMAL
+     * @param priority the priority, eg. PRIORITY_LOW
+     */
+    public void setPriority(int priority)
+    {
+        this.priority = priority;
+    }
+
+
+    /**
+     * Returns the priority of the accumulator
+     * @return the priority of the accumulator
+     */
+    public int getPriority()
+    {
+        return priority;
+    }
+
+
+    /**
+     * Pauses or resumes the accumulator. A paused accumulator disposes its supplier and appends no
+     * rows, while keeping those accumulated. Recording resumes once the accumulator is unpaused, if
+     * it was recording or was started while paused
+     * @param pause whether to pause the accumulator
+     */
+    public synchronized void setPaused(boolean pause)
+    {
+        if (pause == paused)
+            return;
+        if (pause)
+        {
+            boolean recording = isRecording();
+            stopRecording();
+            resumeRecording = recording;
+            paused = true;
+            return;
+        }
+        paused = false;
+        if (resumeRecording)
+            startRecording();
+        resumeRecording = false;
+    }
+
+
+    /**
+     * Returns whether the accumulator is paused
+     * @return whether the accumulator is paused
+     */
+    public synchronized boolean isPaused()
+    {
+        return paused;
+    }
+
+
+    /**
+     * Drops the oldest in-memory rows to free about the given number of bytes. Only sealed rows
+     * (see DataFrame.sealedRows()) are dropped, in whole chunks, so dropping takes time proportional
+     * to the number of chunks rather than of rows
+     * @param bytes the number of bytes to free
+     * @return the estimated number of bytes freed
      */
-    public void startRecording()
+    public synchronized long dropOldestReadings(long bytes)
     {
+        return lock.withLock(() -> {
+            long before = dataframe.estimateBytes();
+            int rows = dataframe.countRows();
+            int sealed = dataframe.sealedRows();
+            if (bytes <= 0 || before == 0 || sealed == 0)
+                return 0L;
+            long needed = (long) Math.ceil((double) rows * Math.min(bytes, before) / before);
+            long chunks = (needed + ChunkedColumn.CHUNK_SIZE - 1) / ChunkedColumn.CHUNK_SIZE;
+            dataframe.removeFirstRows((int) Math.min(sealed, chunks * ChunkedColumn.CHUNK_SIZE));
+            countRemovedRows(rows - dataframe.countRows());
+            removals += 1;
+            return before - dataframe.estimateBytes();
+        });
+    }
+
+
+    /**
+     * Keeps one in-memory row every factor rows, lowering the time resolution of the rows
+     * accumulated so far. Spilled rows and rows appended later are not affected
+     * @param factor the decimation factor
+     * @return the estimated number of bytes freed
+     */
+    public synchronized long decimateReadings(int factor)
+    {
+        return lock.withLock(() -> {
+            long before = dataframe.estimateBytes();
+            dataframe.decimate(factor);
+            // the logged rows stay the first ones, one every factor of them is kept
+            if (factor > 1)
+                loggedRows = (loggedRows + factor - 1) / factor;
+            removals += 1;
+            return before - dataframe.estimateBytes();
+        });
+    }
+
+
+    /**
+     * Start the event recordings. Has no effects if supplier is null. Paused accumulators start
+     * once they are resumed
+     */
+    public synchronized void startRecording()
+    {
+        if (paused)
+        {
+            resumeRecording = true;
+            return;
+        }
         if (isRecording() || supplier == null)
             return;
         supplier.initialize();
@@ -127,8 +496,9 @@ public class DataAccumulator
     /**
      * Stop the event recordings
      */
-    public void stopRecording()
+    public synchronized void stopRecording()
     {
+        resumeRecording = false;
         if (!isRecording())
             return;
         schedule.cancel(false);
@@ -160,12 +530,83 @@ public class DataAccumulator
 
     /**
      * The window size is the maximum number of rows in the dataframe. If set to a negative number
-     * the dataframe will be unbounded
+     * the dataframe will be unbounded. Bounded dataframes store rows in circular buffers, evicting
+     * the oldest row in constant time
      * @param size window size or negative number
      */
     public void setWindowSize(int size)
     {
-        windowSize = size;
+        lock.withLock(() -> {
+            int rows = dataframe.countRows();
+            dataframe.setCapacity(size);
+            countRemovedRows(rows - dataframe.countRows());
+            removals += 1;
+        });
+    }
+
+
+    /**
+     * Sets whether the accumulator keeps running statistics of its columns. Statistics are updated
+     * as rows are appended or evicted and can be read in constant time through getRunningMean(),
+     * getRunningStd(), getRunningMin() and getRunningMax()
+     * @param track whether to keep running statistics
+     */
+    public void setTrackStatistics(boolean track)
+    {
+        lock.withLock(() -> dataframe.setTrackStatistics(track));
+    }
+
+
+    /**
+     * Returns the mean of the numeric values of a column
+     * @param column name of the column
+     * @return the mean, or NaN if the column has no numeric values or statistics are not tracked
+     */
+    public synchronized double getRunningMean(String column)
+    {
+        return readRunningStatistics(column, RunningStatistics::getMean);
+    }
+
+
+    /**
+     * Returns the standard deviation of the numeric values of a column
+     * @param column name of the column
+     * @return the standard deviation, or NaN if the column has no numeric values or statistics are not tracked
+     */
+    public synchronized double getRunningStd(String column)
+    {
+        return readRunningStatistics(column, RunningStatistics::getStd);
+    }
+
+
+    /**
+     * Returns the minimum of the numeric values of a column
+     * @param column name of the column
+     * @return the minimum, or NaN if the column has no numeric values or statistics are not tracked
+     */
+    public synchronized double getRunningMin(String column)
+    {
+        return readRunningStatistics(column, RunningStatistics::getMin);
+    }
+
+
+    /**
+     * Returns the maximum of the numeric values of a column
+     * @param column name of the column
+     * @return the maximum, or NaN if the column has no numeric values or statistics are not tracked
+     */
+    public synchronized double getRunningMax(String column)
+    {
+        return readRunningStatistics(column, RunningStatistics::getMax);
+    }
+
+
+    private double readRunningStatistics(String column, Function<RunningStatistics, Double> getter)
+    {
+        return lock.withLock(() -> {
+            RunningStatistics statistics = dataframe.getRunningStatistics(column);
+            return (statistics == null)? Double.NaN : getter.apply(statistics);
+        });
     }
 
 
@@ -174,33 +615,180 @@ public class DataAccumulator
      */
     public synchronized void clearDataFrame()
     {
-        lock.lock();
+        lock.withLock(this::clear);
+    }
+
+
+    /**
+     * Clears the dataframe and the spilled rows. Must be called holding the lock
+     */
+    private void clear()
+    {
         dataframe.clear();
-        lock.unlock();
+        while (!segments.isEmpty())
+            deleteSegment(segments.size() - 1);
+        spilledRows = 0;
+        removals += 1;
+        loggedRows = 0;
+    }
+
+
+    /**
+     * Takes the rows appended since the previous call that are still in memory, to be written to
+     * a log (see RecordingLog). Rows spilled, dropped or evicted before being taken are not returned
+     * @return a snapshot of the rows, possibly empty
+     */
+    synchronized DataFrame takeUnloggedRows()
+    {
+        return lock.withLock(() -> {
+            int rows = dataframe.countRows();
+            DataFrame taken = dataframe.snapshot().slice(Math.min(loggedRows, rows), rows);
+            loggedRows = rows;
+            return taken;
+        });
+    }
+
+
+    /**
+     * Removes the rows taken by takeUnloggedRows(), once they are logged, and the spilled rows.
+     * Rows appended since they were taken are kept
+     */
+    synchronized void clearLoggedRows()
+    {
+        lock.withLock(() -> {
+            dataframe.removeFirstRows(loggedRows);
+            loggedRows = 0;
+            while (!segments.isEmpty())
+                deleteSegment(segments.size() - 1);
+            spilledRows = 0;
+            removals += 1;
+        });
     }
 
 
     /**
-     * Count dataframe rows
+     * Count dataframe rows, including those spilled to segment files
      * @return the number of accumulated rows
      */
     public synchronized int countReadings()
     {
-        return lock.withLock(dataframe::countRows);
+        return lock.withLock(() -> spilledRows + dataframe.countRows());
+    }
+
+
+    /**
+     * Reads the accumulated dataframe without copying it. Rows are in order of insertion also for
+     * windowed accumulators. The reader must neither modify the dataframe nor keep references to it.
+     * In spill mode the dataframe only holds the rows that were not spilled yet
+     * @param reader function reading the dataframe
+     * @param <R> type of the result
+     * @return the result of the reader
+     */
+    public synchronized <R> R readDataFrame(Function<DataFrame, R> reader)
+    {
+        return lock.withLock(dataframe, reader);
+    }
+
+
+    /**
+     * Sets the column indexing the accumulated rows by time, eg. the timestamps of sensor events.
+     * See DataFrame.setIndex()
+     * @param column name of the column, or null to remove the index
+     */
+    public void setIndex(@Nullable String column)
+    {
+        lock.withLock(() -> dataframe.setIndex(column));
+    }
+
+
+    /**
+     * Reads the accumulated rows whose index value is in [from, to), eg. the last seconds of a
+     * sensor, without copying them. The view is taken over a snapshot of the accumulated rows (see
+     * DataFrame.snapshot() and DataFrame.between()), so rows appended or evicted meanwhile don't
+     * shift the rows it reads, and the reader runs without blocking the accumulation. In spill mode
+     * only the rows that were not spilled are read
+     * @param from the lowest index value (inclusive)
+     * @param to the highest index value (exclusive)
+     * @param reader function reading the view of the rows
+     * @param <R> type of the result
+     * @return the result of the reader
+     */
+    public <R> R readBetween(long from, long to, Function<DataFrame, R> reader)
+    {
+        DataFrame view = lock.withLock(() -> dataframe.snapshot().between(from, to));
+        return reader.apply(view);
     }
 
 
     /**
-     * Get a cloned version of the accumulated dataframe
-     * @return a cloned version of the accumulated dataframe
+     * Writes the last accumulated rows of the given columns into a buffer, without copying the
+     * dataframe. See DataFrame.exportFloats()
+     * @param buffer the buffer to write into
+     * @param rows number of rows to write
+     * @param columns columns to write, or none to write all columns in order
+     * @return the number of rows written
+     */
+    public synchronized int exportFloats(FloatBuffer buffer, int rows, String... columns)
+    {
+        return lock.withLock(() -> dataframe.exportFloats(buffer, rows, columns));
+    }
+
+
+    /**
+     * Get a copy of the accumulated dataframe. The copy is a snapshot sharing storage with the
+     * accumulated dataframe (see DataFrame.snapshot()), so it is taken without blocking the
+     * accumulation for longer than a few pointer copies per column. In spill mode the rows of
+     * the segment files are read and prepended to the snapshot
+     * @return a copy of the accumulated dataframe
      */
     public synchronized DataFrame getDataFrame()
     {
-        return lock.withLock(dataframe::clone);
+        DataFrame snapshot;
+        List<File> spilled;
+        lock.lock();
+        try
+        {
+            snapshot = dataframe.snapshot();
+            spilled = new ArrayList<>(segments);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (spilled.isEmpty())
+            return snapshot;
+
+        // segment files are immutable and only deleted by clear(), called holding this monitor
+        DataFrame[] frames = new DataFrame[spilled.size() + 1];
+        try
+        {
+            for (int i = 0; i < spilled.size(); i++)
+                frames[i] = SegmentFile.read(spilled.get(i));
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot read the spilled rows", e);
+        }
+        frames[0].setName(snapshot.getName());
+        frames[spilled.size()] = snapshot;
+        return DataFrame.concat(frames);
     }
 
 
 
+    /**
+     * Schedules a task on the accumulators' executor
+     * @param task the task to run
+     * @param periodMillis the period between two runs
+     * @return the scheduled task
+     */
+    static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long periodMillis)
+    {
+        executorStarted = true;
+        return EXECUTOR.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+
     /**
      * Set number of thread that will be available for accumulating data. Default is DataAccumulator.DEFAULT_NUM_THREADS
      * This method must be called before any invocation of startRecording()
@@ -6,11 +6,14 @@ import android.hardware.SensorManager;
 
 import androidx.annotation.Nullable;
 
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.signal.Resampler;
 import umu.software.activityrecognition.data.suppliers.DataPipe;
 import umu.software.activityrecognition.data.suppliers.DataSupplier;
+import umu.software.activityrecognition.data.suppliers.impl.FeatureSupplier;
 import umu.software.activityrecognition.data.suppliers.impl.SensorEventSupplier;
 import umu.software.activityrecognition.data.suppliers.impl.TFLiteAudioClassifierSupplier;
 import umu.software.activityrecognition.data.suppliers.impl.TFModelSupplier;
@@ -86,7 +89,8 @@ public class DataAccumulatorFactory
 
 
     /**
-     * Create a SensorAccumulator for the given sensor
+     * Create a SensorAccumulator for the given sensor. Rows are indexed by the events' timestamps,
+     * see DataAccumulator.readBetween()
      * @param sensor the sensor to get the readings from
      * @param initializer optional builder to initialize the SensorAccumulator
      * @return a newly created accumulator
@@ -94,10 +98,54 @@ public class DataAccumulatorFactory
     public DataAccumulator newSensor(Sensor sensor, @Nullable Consumer<DataPipe.Builder> initializer)
     {
         SensorEventSupplier supp = new SensorEventSupplier(sensorManager, sensor);
-        return make(supp, initializer);
+        return makeIndexed(supp, initializer, SensorEventSupplier.TIMESTAMP_COLUMN);
+    }
+
+
+
+    /**
+     * Create an accumulator for the given sensor, producing rows at a fixed rate independently of
+     * the accumulator's delay. Sensor events are buffered and resampled on a grid of their timestamps
+     * @param sensor the sensor to get the readings from
+     * @param rateHz number of rows per second
+     * @param interpolation how values are computed at the sampling times
+     * @param initializer optional builder to initialize the SensorAccumulator
+     * @return a newly created accumulator
+     */
+    public DataAccumulator newResampledSensor(Sensor sensor, double rateHz, Resampler.Interpolation interpolation, @Nullable Consumer<DataPipe.Builder> initializer)
+    {
+        long periodNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / rateHz);
+        SensorEventSupplier supp = new SensorEventSupplier(sensorManager, sensor, periodNanos, interpolation);
+        return makeIndexed(supp, initializer, SensorEventSupplier.TIMESTAMP_COLUMN);
     }
 
 
+    /**
+     * Create an accumulator of sliding-window features over a resampled sensor. A feature row is
+     * produced every hop samples
+     * @param sensor the sensor to get the readings from
+     * @param rateHz number of samples per second
+     * @param windowLength number of samples of the window
+     * @param hop number of samples between two feature rows
+     * @param valueCount number of values of the sensor's events the features are computed on, eg. 3 for an accelerometer
+     * @param initializer optional builder to initialize the SensorAccumulator
+     * @return a newly created accumulator
+     */
+    public DataAccumulator newSensorFeatures(Sensor sensor, double rateHz, int windowLength, int hop, int valueCount, @Nullable Consumer<DataPipe.Builder> initializer)
+    {
+        long periodNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / rateHz);
+        SensorEventSupplier sensorSupp = new SensorEventSupplier(sensorManager, sensor, periodNanos, Resampler.Interpolation.LINEAR);
+        String[] columns = new String[valueCount];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = String.format("f_%s", i);
+        FeatureSupplier supp = FeatureSupplier.builder(sensorSupp)
+                .withColumns(columns)
+                .withWindowLength(windowLength)
+                .withHop(hop)
+                .build();
+        return makeIndexed(supp, initializer, FeatureSupplier.DEFAULT_KEY);
+    }
+
 
     /**
      * Create an accumulator for the given TFModel
@@ -167,4 +215,12 @@ public class DataAccumulatorFactory
         accum.setSupplier(pipe);
         return accum;
     }
+
+
+    private DataAccumulator makeIndexed(DataSupplier supplier, @Nullable Consumer<DataPipe.Builder> initializer, String indexColumn)
+    {
+        DataAccumulator accum = make(supplier, initializer);
+        accum.setIndex(indexColumn);
+        return accum;
+    }
 }
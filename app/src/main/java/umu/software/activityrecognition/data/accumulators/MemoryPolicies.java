@@ -0,0 +1,168 @@
+package umu.software.activityrecognition.data.accumulators;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongBiFunction;
+
+
+/**
+ * Factory of the memory policies of AccumulatorsMap
+ */
+public class MemoryPolicies
+{
+    /** Fraction of the budget below which paused accumulators are resumed */
+    public static final double RESUME_RATIO = 0.75;
+
+
+    private MemoryPolicies() {}
+
+
+    /**
+     * Returns a policy dropping the oldest in-memory rows of the accumulators until the budget
+     * is met, starting from the accumulators with the lowest priority and, among them, the largest
+     * ones. See DataAccumulator.dropOldestReadings()
+     * @return a policy dropping the oldest rows
+     */
+    public static MemoryPolicy dropOldest()
+    {
+        return (accumulators, usedBytes, budgetBytes) ->
+                free(accumulators, usedBytes - budgetBytes, DataAccumulator::dropOldestReadings);
+    }
+
+
+    /**
+     * Returns a policy decimating the in-memory rows of the accumulators until the budget is met,
+     * starting from the accumulators with the lowest priority and, among them, the largest ones.
+     * See DataAccumulator.decimateReadings()
+     * @param factor the decimation factor, eg. 2 to keep every other row
+     * @return a policy decimating the rows
+     */
+    public static MemoryPolicy decimate(int factor)
+    {
+        if (factor < 2)
+            throw new IllegalArgumentException(String.format("Decimation factor must be at least 2, was %s", factor));
+        return (accumulators, usedBytes, budgetBytes) ->
+                free(accumulators, usedBytes - budgetBytes, (acc, left) -> acc.decimateReadings(factor));
+    }
+
+
+    /**
+     * Returns a policy invoking a callback once each time the budget is exceeded, eg. to save and
+     * clear the accumulators before the recurrent save is due. The callback is invoked again only
+     * after the memory went back within the budget
+     * @param save the callback, invoked on the thread checking the budget
+     * @return a policy triggering an early save
+     */
+    public static MemoryPolicy earlySave(Runnable save)
+    {
+        return new MemoryPolicy()
+        {
+            private boolean triggered = false;
+
+            @Override
+            public synchronized void onOverBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes)
+            {
+                if (triggered)
+                    return;
+                triggered = true;
+                save.run();
+            }
+
+            @Override
+            public synchronized void onWithinBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes)
+            {
+                triggered = false;
+            }
+        };
+    }
+
+
+    /**
+     * Returns a policy pausing the accumulators with a priority up to the given one while the
+     * budget is exceeded, eg. model accumulators. They are resumed once the memory falls below
+     * RESUME_RATIO times the budget. See DataAccumulator.setPaused()
+     * @param maxPriority the highest priority of the accumulators to pause, eg. DataAccumulator.PRIORITY_LOW
+     * @return a policy pausing low-priority accumulators
+     */
+    public static MemoryPolicy pauseLowPriority(int maxPriority)
+    {
+        return new MemoryPolicy()
+        {
+            private final List<DataAccumulator> paused = new ArrayList<>();
+
+            @Override
+            public synchronized void onOverBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes)
+            {
+                for (DataAccumulator acc : accumulators.values())
+                    if (acc.getPriority() <= maxPriority && !acc.isPaused())
+                    {
+                        acc.setPaused(true);
+                        paused.add(acc);
+                    }
+            }
+
+            @Override
+            public synchronized void onWithinBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes)
+            {
+                if (paused.isEmpty() || usedBytes > RESUME_RATIO * budgetBytes)
+                    return;
+                for (DataAccumulator acc : paused)
+                    acc.setPaused(false);
+                paused.clear();
+            }
+        };
+    }
+
+
+    /**
+     * Returns a policy applying several policies in order
+     * @param policies the policies to apply
+     * @return a policy applying all the given policies
+     */
+    public static MemoryPolicy chain(MemoryPolicy... policies)
+    {
+        return new MemoryPolicy()
+        {
+            @Override
+            public void onOverBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes)
+            {
+                for (MemoryPolicy p : policies)
+                    p.onOverBudget(accumulators, usedBytes, budgetBytes);
+            }
+
+            @Override
+            public void onWithinBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes)
+            {
+                for (MemoryPolicy p : policies)
+                    p.onWithinBudget(accumulators, usedBytes, budgetBytes);
+            }
+        };
+    }
+
+
+    /**
+     * Applies a trimming function to the accumulators, lowest priority and largest first, until
+     * the given number of bytes is freed. The function is given the number of bytes left to free
+     */
+    private static void free(AccumulatorsMap accumulators, long excessBytes, ToLongBiFunction<DataAccumulator, Long> trim)
+    {
+        Map<DataAccumulator, Long> sizes = new HashMap<>();
+        for (DataAccumulator acc : accumulators.values())
+            sizes.put(acc, acc.estimateBytes());
+        List<DataAccumulator> order = new ArrayList<>(sizes.keySet());
+        order.sort(Comparator
+                .comparingInt(DataAccumulator::getPriority)
+                .thenComparing(sizes::get, Comparator.reverseOrder()));
+
+        long left = excessBytes;
+        for (DataAccumulator acc : order)
+        {
+            if (left <= 0)
+                return;
+            left -= trim.applyAsLong(acc, left);
+        }
+    }
+}
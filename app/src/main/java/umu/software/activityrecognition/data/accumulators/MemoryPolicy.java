@@ -0,0 +1,27 @@
+package umu.software.activityrecognition.data.accumulators;
+
+
+/**
+ * Policy applied by an AccumulatorsMap to keep the memory held by its accumulators within a
+ * budget. See MemoryPolicies for the available policies
+ */
+public interface MemoryPolicy
+{
+    /**
+     * Called when the estimated memory of the accumulators exceeds the budget
+     * @param accumulators the accumulators exceeding the budget
+     * @param usedBytes the estimated memory of the accumulators
+     * @param budgetBytes the memory budget
+     */
+    void onOverBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes);
+
+
+    /**
+     * Called when the estimated memory of the accumulators is within the budget, eg. to undo the
+     * effects of onOverBudget(). The default implementation does nothing
+     * @param accumulators the accumulators
+     * @param usedBytes the estimated memory of the accumulators
+     * @param budgetBytes the memory budget
+     */
+    default void onWithinBudget(AccumulatorsMap accumulators, long usedBytes, long budgetBytes) {}
+}
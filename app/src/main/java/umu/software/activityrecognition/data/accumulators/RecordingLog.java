@@ -0,0 +1,635 @@
+package umu.software.activityrecognition.data.accumulators;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Series;
+import umu.software.activityrecognition.data.dataframe.columns.EmptyColumn;
+import umu.software.activityrecognition.data.persistence.DataFrameWriter;
+import umu.software.activityrecognition.data.persistence.SegmentFile;
+
+
+/**
+ * Write-ahead log of the rows recorded by the accumulators of an AccumulatorsMap, so that
+ * recordings survive the death of the process and are saved incrementally.
+ * A background writer thread periodically takes the rows appended to each accumulator since the
+ * previous flush and appends them to a log file of the accumulator, as a record holding a segment
+ * (see SegmentFile) framed by its length and CRC. Logs are periodically sealed: they are synced,
+ * compacted into a single compressed segment file and replaced by new logs on the next flush.
+ * Logs left by a process that died are compacted when the log is created, up to their last
+ * complete record. Sealed segments are handed to an Archiver by archive() and deleted once saved.
+ * Archivers run on their own thread, so that slow saves (eg. uploads) don't delay the flushes.
+ * Files are named after a sequence number and the name of the accumulated dataframe
+ */
+public class RecordingLog
+{
+    public static final String LOG_EXTENSION = ".log";
+    public static final String SEGMENT_EXTENSION = ".seg";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private static final int RECORD_MAGIC = 0x444c4f47; // "DLOG"
+    private static final int RECORD_HEADER_BYTES = 12;
+
+
+    /**
+     * Saves sealed segments, eg. into a zip file
+     */
+    public interface Archiver
+    {
+        /**
+         * Saves sealed segments. Segments can be read through RecordingLog.read()
+         * @param segments segment files by name of the recorded dataframe, in order of recording
+         * @throws Exception if the segments can't be saved. They are then kept for the next archive
+         */
+        void archive(Map<String, List<File>> segments) throws Exception;
+    }
+
+
+    private static class LogFile
+    {
+        final File file;
+        final FileOutputStream out;
+
+        LogFile(File file) throws IOException
+        {
+            this.file = file;
+            out = new FileOutputStream(file, true);
+        }
+    }
+
+
+    private final AccumulatorsMap accumulators;
+    private final File directory;
+    private final ScheduledExecutorService writer;
+    private final ExecutorService archiving;
+    // open logs by accumulator, only accessed by the writer thread
+    private final Map<DataAccumulator, LogFile> logs = Maps.newHashMap();
+    // rows taken from the accumulators that could not be appended yet, only accessed by the writer thread
+    private final Map<DataAccumulator, DataFrame> pending = Maps.newLinkedHashMap();
+    private final List<ScheduledFuture<?>> schedules = Lists.newArrayList();
+    private long sequence = 0;
+    private boolean closed = false;
+
+
+    /**
+     * Creates the log of a map of accumulators and compacts the logs left in the directory by a
+     * previous process
+     * @param accumulators the accumulators to log
+     * @param directory directory of the log and segment files. Created if missing
+     */
+    public RecordingLog(AccumulatorsMap accumulators, File directory)
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException(String.format("Cannot create the log directory %s", directory));
+        this.accumulators = accumulators;
+        this.directory = directory;
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread th = new Thread(runnable);
+            th.setName(RecordingLog.class.getName());
+            return th;
+        });
+        archiving = Executors.newSingleThreadExecutor(runnable -> {
+            Thread th = new Thread(runnable);
+            th.setName(RecordingLog.class.getName() + "_archiver");
+            return th;
+        });
+
+        for (File file : listFiles(""))
+            sequence = Math.max(sequence, parseSequence(file) + 1);
+        writer.execute(this::recoverLogs);
+    }
+
+
+    /**
+     * Starts flushing and sealing the logs periodically
+     * @param flushMillis period between two flushes, ie. the maximum time of recording lost if the
+     *                    process dies
+     * @param sealMillis period between two seals
+     */
+    public synchronized void start(long flushMillis, long sealMillis)
+    {
+        stop();
+        if (closed)
+            return;
+        schedules.add(writer.scheduleAtFixedRate(() -> runLogged(() -> flushLogs(false)), flushMillis, flushMillis, TimeUnit.MILLISECONDS));
+        schedules.add(writer.scheduleAtFixedRate(() -> runLogged(() -> {
+            flushLogs(false);
+            sealLogs();
+        }), sealMillis, sealMillis, TimeUnit.MILLISECONDS));
+    }
+
+
+    /**
+     * Stops flushing and sealing the logs periodically
+     */
+    public synchronized void stop()
+    {
+        for (ScheduledFuture<?> schedule : schedules)
+            schedule.cancel(false);
+        schedules.clear();
+    }
+
+
+    /**
+     * Appends the rows appended to the accumulators since the previous flush to the logs
+     * @return the future completed once the rows are written
+     */
+    public synchronized Future<?> flush()
+    {
+        return writer.submit(() -> {
+            flushLogs(false);
+            return null;
+        });
+    }
+
+
+    /**
+     * Flushes and seals the logs, compacting them into segment files
+     * @return the future completed once the logs are sealed
+     */
+    public synchronized Future<?> seal()
+    {
+        return writer.submit(() -> {
+            flushLogs(false);
+            sealLogs();
+            return null;
+        });
+    }
+
+
+    /**
+     * Flushes and seals the logs and hands all sealed segments, including those of previous
+     * processes, to an archiver. Segments are deleted once archived. The logs are sealed on the
+     * writer thread and the segments archived on the archiver thread, without blocking the
+     * accumulators nor the following flushes
+     * @param clear whether to remove the logged rows from the accumulators, so that each row is
+     *              either archived or kept in memory
+     * @param archiver the archiver saving the segments
+     * @return the future result: whether the segments were archived. It fails if the log is closed
+     */
+    public synchronized CompletableFuture<Boolean> archive(boolean clear, Archiver archiver)
+    {
+        CompletableFuture<Boolean> archived = new CompletableFuture<>();
+        if (closed)
+        {
+            archived.completeExceptionally(new IllegalStateException("The recording log is closed"));
+            return archived;
+        }
+        writer.execute(() -> {
+            try
+            {
+                flushLogs(clear);
+                sealLogs();
+            }
+            catch (IOException e)
+            {
+                archived.completeExceptionally(e);
+                return;
+            }
+            archiving.execute(() -> archived.complete(archiveSegments(archiver)));
+        });
+        return archived;
+    }
+
+
+    /**
+     * Stops the log without waiting for it to be sealed. The last rows are taken from the
+     * accumulators right away, then the writer thread appends them, seals the log and stops once
+     * the pending archives are done. Sealed segments are kept for the next log in the directory
+     */
+    public synchronized void close()
+    {
+        if (closed)
+            return;
+        stop();
+        Map<DataAccumulator, DataFrame> rows = takeRows();
+        closed = true;
+        writer.execute(() -> {
+            runLogged(() -> {
+                appendRows(rows);
+                sealLogs();
+            });
+            archiving.shutdown();
+        });
+        writer.shutdown();
+    }
+
+
+    /**
+     * Reads segments into a single dataframe, named after the recorded dataframe
+     * @param segments segment files, in order of recording
+     * @return the rows of the segments
+     * @throws IOException if a segment can't be read
+     */
+    public static DataFrame read(List<File> segments) throws IOException
+    {
+        DataFrame[] frames = new DataFrame[segments.size()];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = SegmentFile.read(segments.get(i));
+        if (frames.length > 0)
+            frames[0].setName(parseName(segments.get(0)));
+        return DataFrame.concat(frames);
+    }
+
+
+    /**
+     * Writes segments as a single UTF-8 CSV, reading one segment at a time so that memory doesn't
+     * depend on the length of the recording. Columns are the union of those of the segments, in
+     * order of appearance, as for read(). The stream is flushed but not closed
+     * @param segments segment files, in order of recording
+     * @param out the stream to write into
+     * @throws IOException if a segment can't be read or the stream can't be written
+     */
+    public static void writeCsv(List<File> segments, OutputStream out) throws IOException
+    {
+        Set<String> columns = Sets.newLinkedHashSet();
+        for (File segment : segments)
+            for (String column : SegmentFile.open(segment).columns())
+                columns.add(column);
+
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        boolean header = true;
+        for (File segment : segments)
+        {
+            DataFrame rows = SegmentFile.read(segment);
+            if (rows.countRows() == 0)
+                continue;
+            DataFrame aligned = new DataFrame(rows.getName());
+            for (String column : columns)
+            {
+                Series series = rows.get(column);
+                aligned.put(column, (series != null)? series : new Series(new EmptyColumn(rows.countRows())));
+            }
+            DataFrameWriter.writeCsv(aligned, writer, header, ",");
+            header = false;
+        }
+        writer.flush();
+    }
+
+
+    private interface IOTask
+    {
+        void run() throws IOException;
+    }
+
+
+    private static void runLogged(IOTask task)
+    {
+        try
+        {
+            task.run();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Appends the rows taken from each accumulator to its log
+     * @param clear whether to remove the appended rows from the accumulators. Rows that can't be
+     *              appended are kept in memory
+     */
+    private void flushLogs(boolean clear) throws IOException
+    {
+        Map<DataAccumulator, DataFrame> rows;
+        synchronized (this)
+        {
+            // the last rows were taken by close(), which appends them after the pending tasks
+            if (closed)
+                return;
+            rows = takeRows();
+        }
+        try
+        {
+            appendRows(rows);
+        }
+        finally
+        {
+            if (clear)
+                for (DataAccumulator acc : rows.keySet())
+                    if (!pending.containsKey(acc))
+                        acc.clearLoggedRows();
+        }
+    }
+
+
+    /**
+     * Takes the rows appended to each accumulator since they were last taken. Must be called
+     * holding the monitor of the log, so that rows are appended in the order they are taken
+     * @return the rows by accumulator, possibly empty, for all accumulators
+     */
+    private Map<DataAccumulator, DataFrame> takeRows()
+    {
+        Map<DataAccumulator, DataFrame> rows = Maps.newLinkedHashMap();
+        for (DataAccumulator acc : accumulators.values())
+            rows.put(acc, acc.takeUnloggedRows());
+        return rows;
+    }
+
+
+    /**
+     * Appends rows to the log of their accumulator, after the rows that previous flushes could not
+     * append. Rows that can't be appended are kept for the next flush, and the log that failed is
+     * sealed so that its complete records are not followed by a partial one
+     */
+    private void appendRows(Map<DataAccumulator, DataFrame> rows) throws IOException
+    {
+        for (Map.Entry<DataAccumulator, DataFrame> e : rows.entrySet())
+        {
+            DataFrame previous = pending.remove(e.getKey());
+            if (previous != null)
+                pending.put(e.getKey(), DataFrame.concat(previous, e.getValue()));
+            else if (e.getValue().countRows() > 0)
+                pending.put(e.getKey(), e.getValue());
+        }
+
+        IOException error = null;
+        Iterator<Map.Entry<DataAccumulator, DataFrame>> entries = pending.entrySet().iterator();
+        while (entries.hasNext())
+        {
+            Map.Entry<DataAccumulator, DataFrame> e = entries.next();
+            LogFile log = logs.get(e.getKey());
+            try
+            {
+                if (log == null)
+                {
+                    log = new LogFile(newFile(e.getValue().getName(), LOG_EXTENSION));
+                    logs.put(e.getKey(), log);
+                }
+                appendRecord(log, e.getValue());
+                entries.remove();
+            }
+            catch (IOException ex)
+            {
+                error = ex;
+                LogFile failed = logs.remove(e.getKey());
+                if (failed != null)
+                    runLogged(() -> {
+                        failed.out.close();
+                        compact(failed.file);
+                    });
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+
+    /**
+     * Writes a record with a single write, so that it reaches the file system even if the process
+     * dies right after
+     */
+    private static void appendRecord(LogFile log, DataFrame rows) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[RECORD_HEADER_BYTES]);
+        SegmentFile.write(rows, 0, rows.countRows(), bytes, false);
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_BYTES, record.length - RECORD_HEADER_BYTES);
+        ByteBuffer.wrap(record)
+                .putInt(RECORD_MAGIC)
+                .putInt(record.length - RECORD_HEADER_BYTES)
+                .putInt((int) crc.getValue());
+        log.out.write(record);
+    }
+
+
+    /**
+     * Syncs, closes and compacts the open logs
+     */
+    private void sealLogs() throws IOException
+    {
+        IOException error = null;
+        for (LogFile log : logs.values())
+        {
+            try
+            {
+                log.out.getFD().sync();
+                log.out.close();
+                compact(log.file);
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+        }
+        logs.clear();
+        if (error != null)
+            throw error;
+    }
+
+
+    /**
+     * Compacts the logs left by a previous process. Logs whose segment was already written are
+     * deleted, as are temporary files
+     */
+    private void recoverLogs()
+    {
+        for (File file : listFiles(TEMPORARY_EXTENSION))
+            delete(file);
+        for (File file : listFiles(LOG_EXTENSION))
+        {
+            if (sibling(file, SEGMENT_EXTENSION).exists())
+                delete(file);
+            else
+                runLogged(() -> compact(file));
+        }
+    }
+
+
+    /**
+     * Compacts the complete records of a log into a compressed segment file and deletes the log
+     */
+    private void compact(File log) throws IOException
+    {
+        List<DataFrame> records = readRecords(log);
+        if (!records.isEmpty())
+        {
+            DataFrame rows = DataFrame.concat(records.toArray(new DataFrame[0]));
+            File temporary = sibling(log, TEMPORARY_EXTENSION);
+            try (FileOutputStream out = new FileOutputStream(temporary))
+            {
+                SegmentFile.write(rows, 0, rows.countRows(), out, true);
+                out.getFD().sync();
+            }
+            if (!temporary.renameTo(sibling(log, SEGMENT_EXTENSION)))
+                throw new IOException(String.format("Cannot seal the log %s", log));
+        }
+        delete(log);
+    }
+
+
+    /**
+     * Reads the records of a log until its end or its first incomplete or corrupted record
+     */
+    private static List<DataFrame> readRecords(File log) throws IOException
+    {
+        List<DataFrame> records = Lists.newArrayList();
+        ByteBuffer buffer;
+        try (FileInputStream in = new FileInputStream(log); FileChannel channel = in.getChannel())
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_BYTES && buffer.getInt() == RECORD_MAGIC)
+        {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                break;
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+            records.add(SegmentFile.read(record));
+            buffer.position(buffer.position() + length);
+        }
+        return records;
+    }
+
+
+    /**
+     * Hands the sealed segments to an archiver and deletes them once archived. Segments are
+     * renamed into place once complete, so they can be listed while the writer seals others
+     */
+    private boolean archiveSegments(Archiver archiver)
+    {
+        Map<String, List<File>> segments = listSegments();
+        if (segments.isEmpty())
+            return true;
+        try
+        {
+            archiver.archive(segments);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            return false;
+        }
+        for (List<File> files : segments.values())
+            for (File file : files)
+                delete(file);
+        return true;
+    }
+
+
+    /**
+     * Returns the sealed segments by name of the recorded dataframe, in order of recording
+     */
+    private Map<String, List<File>> listSegments()
+    {
+        Map<String, List<File>> segments = Maps.newLinkedHashMap();
+        for (File file : listFiles(SEGMENT_EXTENSION))
+        {
+            String name = parseName(file);
+            if (!segments.containsKey(name))
+                segments.put(name, Lists.newArrayList());
+            segments.get(name).add(file);
+        }
+        return segments;
+    }
+
+
+    /**
+     * Lists the files of the log directory with the given extension, in order of sequence number
+     */
+    private List<File> listFiles(String extension)
+    {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(extension) && name.indexOf('_') > 0);
+        if (files == null)
+            return Lists.newArrayList();
+        Arrays.sort(files);
+        return Lists.newArrayList(files);
+    }
+
+
+    private File newFile(String name, String extension)
+    {
+        try
+        {
+            String encoded = URLEncoder.encode(String.valueOf(name), "UTF-8");
+            return new File(directory, String.format("%019d_%s%s", sequence++, encoded, extension));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static File sibling(File file, String extension)
+    {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.')) + extension);
+    }
+
+
+    private static long parseSequence(File file)
+    {
+        String name = file.getName();
+        try
+        {
+            return Long.parseLong(name.substring(0, name.indexOf('_')));
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e)
+        {
+            return -1;
+        }
+    }
+
+
+    private static String parseName(File file)
+    {
+        String name = file.getName();
+        try
+        {
+            return URLDecoder.decode(name.substring(name.indexOf('_') + 1, name.lastIndexOf('.')), "UTF-8");
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException e)
+        {
+            return name;
+        }
+    }
+
+
+    private static void delete(File file)
+    {
+        if (file.exists() && !file.delete())
+            file.deleteOnExit();
+    }
+}
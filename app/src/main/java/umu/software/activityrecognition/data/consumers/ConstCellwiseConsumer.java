@@ -1,10 +1,9 @@
 package umu.software.activityrecognition.data.consumers;
 
-import com.google.common.primitives.Doubles;
-
 import java.util.function.Consumer;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
 
 public abstract class ConstCellwiseConsumer implements Consumer<DataFrame.Row>
 {
@@ -22,9 +21,9 @@ public abstract class ConstCellwiseConsumer implements Consumer<DataFrame.Row>
         for (String key : values.keySet())
             if (row.containsKey(key))
             {
-                Double vRow   = Doubles.tryParse(row.get(key).toString());
-                Double vConst = Doubles.tryParse(values.get(key).toString());
-                if (vRow != null && vConst != null)
+                double vRow   = Columns.toDouble(row.get(key));
+                double vConst = Columns.toDouble(values.get(key));
+                if (!Double.isNaN(vRow) && !Double.isNaN(vConst))
                     row.put(key, compute(vRow, vConst));
             }
     }
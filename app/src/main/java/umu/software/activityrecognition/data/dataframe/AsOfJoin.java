@@ -0,0 +1,253 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.Arrays;
+
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+
+
+/**
+ * As-of join aligning dataframes on a time key, eg. 'sensor_event_timestamp' or the '*_timestamp'
+ * columns added by TimestampConsumer. Each row of the left dataframe is matched with the last row
+ * of every other dataframe whose key is not greater than its own (or with the nearest one).
+ * Dataframes must be sorted by key, as they are when accumulated, so that the join takes a single
+ * linear pass over all of them
+ */
+public class AsOfJoin
+{
+    public static final String DEFAULT_KEY = "sensor_event_timestamp";
+
+
+    /**
+     * How rows are matched
+     */
+    public enum Direction
+    {
+        /**
+         * Match the last row whose key is not greater than the left key
+         */
+        BACKWARD,
+        /**
+         * Match the row whose key is the closest to the left key
+         */
+        NEAREST
+    }
+
+
+    /**
+     * What to do with left rows that have no match within the tolerance
+     */
+    public enum Fill
+    {
+        /**
+         * Fill the cells of the unmatched dataframe with blank values
+         */
+        BLANK,
+        /**
+         * Repeat the values of the last matched row of the unmatched dataframe
+         */
+        LAST,
+        /**
+         * Drop the left row
+         */
+        DROP
+    }
+
+
+    /**
+     * AsOfJoin builder
+     */
+    public static class Builder
+    {
+        private final AsOfJoin join = new AsOfJoin();
+
+        private Builder() {}
+
+        /**
+         * Sets the key column of the left dataframe. Default is DEFAULT_KEY
+         * @param column name of the key column
+         * @return this builder
+         */
+        public Builder withLeftKey(String column)
+        {
+            join.leftKey = column;
+            return this;
+        }
+
+        /**
+         * Sets the key column of the other dataframes. Default is DEFAULT_KEY
+         * @param column name of the key column
+         * @return this builder
+         */
+        public Builder withRightKey(String column)
+        {
+            join.rightKey = column;
+            return this;
+        }
+
+        /**
+         * Sets the maximum distance between matched keys. Default is no limit
+         * @param tolerance the maximum distance, in the unit of the keys, or a negative number for no limit
+         * @return this builder
+         */
+        public Builder withTolerance(long tolerance)
+        {
+            join.tolerance = tolerance;
+            return this;
+        }
+
+        public Builder withDirection(Direction direction)
+        {
+            join.direction = direction;
+            return this;
+        }
+
+        public Builder withFill(Fill fill)
+        {
+            join.fill = fill;
+            return this;
+        }
+
+        public AsOfJoin build()
+        {
+            return join;
+        }
+    }
+
+
+    private String leftKey = DEFAULT_KEY;
+    private String rightKey = DEFAULT_KEY;
+    private long tolerance = -1;
+    private Direction direction = Direction.BACKWARD;
+    private Fill fill = Fill.BLANK;
+
+
+    private AsOfJoin() {}
+
+
+    /**
+     * Start constructing an AsOfJoin through a builder
+     * @return a join builder
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+
+    /**
+     * Joins dataframes. The result has a row for each (kept) row of the left dataframe, with its
+     * columns followed by those of the other dataframes, renamed as '{dataframe name}_{column}'
+     * @param left the dataframe driving the join
+     * @param others the dataframes to align to the left one
+     * @return the aligned dataframe, named as the left one
+     */
+    public DataFrame join(DataFrame left, DataFrame... others)
+    {
+        DataFrame leftSnapshot = left.snapshot();
+        DataFrame[] snapshots = new DataFrame[others.length];
+        for (int i = 0; i < others.length; i++)
+            snapshots[i] = others[i].snapshot();
+
+        Series keys = keySeries(leftSnapshot, leftKey);
+        int rows = keys.size();
+        int[][] matches = new int[snapshots.length][];
+        for (int i = 0; i < snapshots.length; i++)
+            matches[i] = match(keys, keySeries(snapshots[i], rightKey));
+
+        int[] kept = new int[rows];
+        int count = 0;
+        for (int r = 0; r < rows; r++)
+        {
+            boolean keep = true;
+            for (int[] m : matches)
+                keep &= m[r] >= 0 || fill != Fill.DROP;
+            if (keep)
+                kept[count++] = r;
+        }
+        kept = Arrays.copyOf(kept, count);
+
+        DataFrame result = new DataFrame(left.getName());
+        int[] identity = new int[rows];
+        for (int r = 0; r < rows; r++)
+            identity[r] = r;
+        for (String column : leftSnapshot.keySet())
+            result.put(column, gather(leftSnapshot.get(column), identity, kept));
+        for (int i = 0; i < snapshots.length; i++)
+            for (String column : snapshots[i].keySet())
+                result.put(String.format("%s_%s", snapshots[i].getName(), column), gather(snapshots[i].get(column), matches[i], kept));
+        return result;
+    }
+
+
+    /**
+     * Matches each left key with a row of the right dataframe, in a single pass over both
+     * @param keys keys of the left dataframe
+     * @param rightKeys keys of the right dataframe
+     * @return for each left row, the index of the matched right row, or -1
+     */
+    private int[] match(Series keys, Series rightKeys)
+    {
+        int[] matches = new int[keys.size()];
+        int last = -1;          // last right row whose key is not greater than the left key
+        int lastValid = -1;     // same as last, skipping rows with blank keys
+        int lastMatch = -1;
+        for (int r = 0; r < keys.size(); r++)
+        {
+            int match = -1;
+            if (!keys.getColumn().isBlank(r))
+            {
+                long key = keys.getLong(r);
+                while (last + 1 < rightKeys.size() && (rightKeys.getColumn().isBlank(last + 1) || rightKeys.getLong(last + 1) <= key))
+                {
+                    last += 1;
+                    if (!rightKeys.getColumn().isBlank(last))
+                        lastValid = last;
+                }
+                match = lastValid;
+                int next = last + 1;
+                if (direction == Direction.NEAREST && next < rightKeys.size() &&
+                        (match < 0 || rightKeys.getLong(next) - key < key - rightKeys.getLong(match)))
+                    match = next;
+                if (match >= 0 && tolerance >= 0 && Math.abs(rightKeys.getLong(match) - key) > tolerance)
+                    match = -1;
+            }
+            if (match < 0 && fill == Fill.LAST)
+                match = lastMatch;
+            matches[r] = match;
+            if (match >= 0)
+                lastMatch = match;
+        }
+        return matches;
+    }
+
+
+    /**
+     * Builds a series with the selected values of another one
+     * @param source the series to copy the values from
+     * @param indices for each row, the index of the value to copy, or -1 for a blank value
+     * @param rows the rows to build
+     * @return the new series
+     */
+    private static Series gather(Series source, int[] indices, int[] rows)
+    {
+        Series result = new Series(Columns.newColumn(source.getType()));
+        result.ensureCapacity(rows.length);
+        for (int r : rows)
+            if (indices[r] < 0)
+                result.getColumn().addBlank();
+            else
+                result.getColumn().addFrom(source.getColumn(), indices[r]);
+        return result;
+    }
+
+
+    private static Series keySeries(DataFrame df, String key)
+    {
+        Series s = df.get(key);
+        if (s == null && df.countRows() == 0)
+            return new Series();
+        if (s == null)
+            throw new IllegalArgumentException(String.format("Dataframe %s has no column %s", df.getName(), key));
+        return s;
+    }
+}
@@ -0,0 +1,102 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+
+
+/**
+ * Executes functions over the columns of dataframes. Execution is sequential by default: parallel
+ * execution can be enabled for dataframes large enough to benefit from it, eg. when post-processing
+ * long recordings on a desktop JVM. Results are always returned in column order
+ */
+public class ColumnExecutor
+{
+    public static final int DEFAULT_MIN_CELLS = 1 << 16;
+
+    private static ForkJoinPool pool = null;
+    private static int minCells = DEFAULT_MIN_CELLS;
+
+
+    private ColumnExecutor() {}
+
+
+    /**
+     * Enables parallel execution in the common ForkJoinPool for dataframes with at least
+     * DEFAULT_MIN_CELLS cells
+     */
+    public static void enableParallel()
+    {
+        enableParallel(ForkJoinPool.commonPool(), DEFAULT_MIN_CELLS);
+    }
+
+
+    /**
+     * Enables parallel execution
+     * @param forkJoinPool pool in which columns are processed
+     * @param minimumCells minimum number of cells (rows * columns) of a dataframe for its
+     *                     columns to be processed in parallel
+     */
+    public static synchronized void enableParallel(ForkJoinPool forkJoinPool, int minimumCells)
+    {
+        pool = forkJoinPool;
+        minCells = Math.max(0, minimumCells);
+    }
+
+
+    /**
+     * Disables parallel execution. Does not shut down the pool
+     */
+    public static synchronized void disableParallel()
+    {
+        pool = null;
+    }
+
+
+    /**
+     * Returns whether parallel execution is enabled
+     * @return whether parallel execution is enabled
+     */
+    public static synchronized boolean isParallel()
+    {
+        return pool != null;
+    }
+
+
+    /**
+     * Applies a function to each column, in parallel if enabled and the columns are large enough
+     * @param names names of the columns
+     * @param series series of the columns
+     * @param rows number of rows of the columns
+     * @param fun function (column_name, column_serie) -> result
+     * @param <R> class of the result
+     * @return the results, in column order
+     */
+    static <R> List<R> map(String[] names, Series[] series, int rows, BiFunction<String, Series, R> fun)
+    {
+        ForkJoinPool forkJoinPool;
+        int threshold;
+        synchronized (ColumnExecutor.class)
+        {
+            forkJoinPool = pool;
+            threshold = minCells;
+        }
+
+        Object[] results = new Object[names.length];
+        if (forkJoinPool == null || names.length < 2 || (long) rows * names.length < threshold)
+        {
+            for (int i = 0; i < names.length; i++)
+                results[i] = fun.apply(names[i], series[i]);
+        }
+        else
+            forkJoinPool.submit(() ->
+                    IntStream.range(0, names.length).parallel().forEach(i -> results[i] = fun.apply(names[i], series[i]))
+            ).join();
+
+        @SuppressWarnings("unchecked")
+        List<R> list = (List<R>) Arrays.asList(results);
+        return list;
+    }
+}
@@ -2,15 +2,33 @@ package umu.software.activityrecognition.data.dataframe;
 
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import umu.software.activityrecognition.data.dataframe.columns.AbstractFloatColumn;
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+import umu.software.activityrecognition.data.dataframe.columns.EmptyColumn;
+import umu.software.activityrecognition.data.dataframe.columns.SliceColumn;
 
 
 /**
@@ -37,6 +55,18 @@ public class DataFrame extends LinkedHashMap<String, Series>
 
 
     private String name;
+    private int capacity = 0;
+    private boolean trackStatistics = false;
+    // column of non-decreasing timestamps, searched by between()
+    private String indexColumn = null;
+
+    // Columns bound to the schema of the last appended SlotRow. The binding is valid as long as
+    // no column is added or removed, which is tracked by structureVersion
+    private int structureVersion = 0;
+    private Schema boundSchema = null;
+    private int boundVersion = -1;
+    private Series[] boundSeries = new Series[0];
+    private Series[] unboundSeries = new Series[0];
 
 
     public DataFrame()
@@ -64,9 +94,58 @@ public class DataFrame extends LinkedHashMap<String, Series>
         return name;
     }
 
+    /**
+     * Sets the maximum number of rows of the dataframe. Once reached, appending a row evicts the
+     * first one in constant time, as all columns are stored in circular buffers
+     * @param rows the maximum number of rows, or a non-positive number for unbounded dataframes
+     */
+    public synchronized void setCapacity(int rows)
+    {
+        capacity = Math.max(0, rows);
+        for (Series s : values())
+            s.setCapacity(capacity);
+    }
+
+
+    /**
+     * Returns the maximum number of rows of the dataframe
+     * @return the maximum number of rows, or 0 if the dataframe is unbounded
+     */
+    public synchronized int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    /**
+     * Sets whether the columns keep running statistics, updated as rows are appended or evicted.
+     * See Series.setTrackStatistics()
+     * @param track whether the columns keep running statistics
+     */
+    public synchronized void setTrackStatistics(boolean track)
+    {
+        trackStatistics = track;
+        for (Series s : values())
+            s.setTrackStatistics(track);
+    }
+
+
+    /**
+     * Returns the running statistics of a column
+     * @param column name of the column
+     * @return the running statistics of the column, or null if the column doesn't exist or
+     * statistics are not tracked
+     */
+    public synchronized RunningStatistics getRunningStatistics(String column)
+    {
+        Series s = get(column);
+        return (s == null)? null : s.getRunningStatistics();
+    }
+
+
     public synchronized boolean hasColumn(String column)
     {
-        return Arrays.asList(columns()).contains(column);
+        return containsKey(column);
     }
 
     /**
@@ -102,35 +181,204 @@ public class DataFrame extends LinkedHashMap<String, Series>
      * Compute mean columnwise
      * @return a dataframe with a single row
      */
-    public synchronized DataFrame mean()
+    public DataFrame mean()
     {
-        return transformByColumn((col, serie) -> {
-            double mean = get(col).mean();
-            serie.clear();
-            serie.add(mean);
-        });
+        return reduceByColumn(Series::mean);
     }
 
     /**
      * Compute standard deviation columnwise
      * @return a dataframe with a single row
      */
-    public synchronized DataFrame std()
+    public DataFrame std()
     {
-        return transformByColumn((col, serie) -> {
-            double std = get(col).std();
-            serie.clear();
-            serie.add(std);
-        });
+        return reduceByColumn(Series::std);
+    }
+
+    /**
+     * Reduces each column to a single value
+     * @param fun function reducing a column
+     * @return a dataframe with a single row
+     */
+    private DataFrame reduceByColumn(ToDoubleFunction<Series> fun)
+    {
+        DataFrame source = snapshot();
+        List<Double> values = source.mapColumns((name, serie) -> fun.applyAsDouble(serie));
+        DataFrame df = new DataFrame(getName());
+        int i = 0;
+        for (String name : source.keySet())
+        {
+            Series s = new Series();
+            s.add(values.get(i++));
+            df.put(name, s);
+        }
+        return df;
     }
 
     public synchronized int countRows()
     {
         if (size() == 0)
             return 0;
-        Entry<String, Series> entry = this.entrySet().iterator().next();
-        Series value = entry.getValue();
-        return value.size();
+        return values().iterator().next().size();
+    }
+
+
+    /**
+     * Returns an estimate of the memory allocated to store the cells of the dataframe
+     * @return the estimated number of bytes
+     */
+    public synchronized long estimateBytes()
+    {
+        long bytes = 0;
+        for (Series s : values())
+            bytes += s.getColumn().estimateBytes();
+        return bytes;
+    }
+
+
+    /**
+     * Returns the number of first rows that are sealed in all columns, ie. that can be removed
+     * with removeFirstRows() without moving the following ones. See Column.sealedCells()
+     * @return the number of sealed rows
+     */
+    public synchronized int sealedRows()
+    {
+        if (size() == 0)
+            return 0;
+        int rows = Integer.MAX_VALUE;
+        for (Series s : values())
+            rows = Math.min(rows, s.getColumn().sealedCells());
+        return rows;
+    }
+
+
+    /**
+     * Sets the column indexing the rows by time, eg. the timestamps of sensor events. Its values
+     * must be non-decreasing, as for rows appended in order of time, so that ranges of rows can be
+     * found by binary search (see between()). Rows appended later are not checked
+     * @param column name of the column, or null to remove the index
+     * @throws IllegalArgumentException if the column has blank or decreasing values
+     */
+    public synchronized void setIndex(@Nullable String column)
+    {
+        Series s = (column == null)? null : get(column);
+        if (s != null)
+        {
+            Column c = s.getColumn();
+            for (int i = 0; i < c.size(); i++)
+                if (c.isBlank(i) || (i > 0 && compareIndex(c, i, c, i - 1) < 0))
+                    throw new IllegalArgumentException(String.format("Column %s is not sorted at row %s", column, i));
+        }
+        indexColumn = column;
+    }
+
+
+    /**
+     * Returns the column indexing the rows by time
+     * @return name of the index column, or null if the dataframe has no index
+     */
+    public synchronized String getIndex()
+    {
+        return indexColumn;
+    }
+
+
+    /**
+     * Returns a view of the rows whose index value is in [from, to), found by binary search over
+     * the index column. See setIndex() and slice()
+     * @param from the lowest index value (inclusive)
+     * @param to the highest index value (exclusive)
+     * @return a read-only view of the rows in the range
+     * @throws IllegalStateException if the dataframe has no index
+     */
+    public synchronized DataFrame between(long from, long to)
+    {
+        if (indexColumn == null)
+            throw new IllegalStateException(String.format("Dataframe %s has no index", getName()));
+        Series index = get(indexColumn);
+        if (index == null)
+            return slice(0, 0);
+        int first = lowerBound(index.getColumn(), from);
+        int last = Math.max(first, lowerBound(index.getColumn(), to));
+        return slice(first, last);
+    }
+
+
+    /**
+     * Returns a view of a range of rows. The view reads the cells of this dataframe without copying
+     * them (see SliceColumn) and its series copy them on write. It must not be used after the
+     * viewed rows are removed from this dataframe
+     * @param from index of the first row (inclusive)
+     * @param to index of the last row (exclusive)
+     * @return a read-only view of the rows in the range
+     */
+    public synchronized DataFrame slice(int from, int to)
+    {
+        DataFrame view = new DataFrame(getName());
+        view.indexColumn = indexColumn;
+        for (Map.Entry<String, Series> e : entrySet())
+            view.put(e.getKey(), new Series(new SliceColumn(e.getValue().getColumn(), from, to)));
+        return view;
+    }
+
+
+    /**
+     * Returns the index of the first cell of a sorted column not lower than the given value
+     */
+    private static int lowerBound(Column column, long value)
+    {
+        int low = 0;
+        int high = column.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (compareIndex(column, mid, value) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+
+    /**
+     * Compares a cell of an index column with a value. Integer columns are compared exactly
+     */
+    private static int compareIndex(Column column, int index, long value)
+    {
+        if (column.getType() == ColumnType.LONG || column.getType() == ColumnType.INT)
+            return Long.compare(column.getLong(index), value);
+        return Double.compare(column.getDouble(index), value);
+    }
+
+
+    private static int compareIndex(Column a, int i, Column b, int j)
+    {
+        if (a.getType() == ColumnType.LONG || a.getType() == ColumnType.INT)
+            return compareIndex(a, i, b.getLong(j));
+        return Double.compare(a.getDouble(i), b.getDouble(j));
+    }
+
+
+    /**
+     * Removes the first rows
+     * @param rows number of rows to remove
+     */
+    public synchronized void removeFirstRows(int rows)
+    {
+        for (Series s : values())
+            s.removeHead(rows);
+    }
+
+
+    /**
+     * Keeps one row every factor rows, starting from the first one. See Series.decimate()
+     * @param factor the decimation factor
+     */
+    public synchronized void decimate(int factor)
+    {
+        for (Series s : values())
+            s.decimate(factor);
     }
 
 
@@ -143,18 +391,222 @@ public class DataFrame extends LinkedHashMap<String, Series>
     {
         if (row.size() > 0)
         {
-            int size = size();
+            int size = countRows();
             for (String col : row.keySet())
                 if (!hasColumn(col))
-                    put(col, Series.fillSeries(size, this::nullElement));
+                    addColumn(col, new EmptyColumn(), size);
+
+            for (Map.Entry<String, Series> e : entrySet())
+                e.getValue().add(row.getOrDefault(e.getKey(), nullElement()));
+        }
+        return countRows() - 1;
+    }
+
 
-            for (String col : columns())
-                get(col).add(row.getOrDefault(col, nullElement()));
+    /**
+     * Appends a row of a fixed schema, writing its slots straight into the bound columns.
+     * Columns are looked up only when the schema changes or columns are added or removed
+     * @param row the row to append
+     * @return index of the newly added row
+     */
+    public synchronized int appendRow(SlotRow row)
+    {
+        if (row.count() > 0)
+        {
+            if (row.getSchema() != boundSchema || boundVersion != structureVersion)
+                bind(row.getSchema());
+            for (int i = 0; i < boundSeries.length; i++)
+                row.appendTo(i, boundSeries[i]);
+            for (Series s : unboundSeries)
+                s.add(nullElement());
         }
         return countRows() - 1;
     }
 
 
+    /**
+     * Appends rows in a single pass per column. The union of the rows' columns is computed once,
+     * new columns are back-filled in bulk and the storage of all columns is pre-sized
+     * @param rows the rows to append. Empty rows are skipped, as in appendRow()
+     * @return index of the last added row
+     */
+    public synchronized int appendRows(List<Row> rows)
+    {
+        int size = countRows();
+        int added = 0;
+        for (Row row : rows)
+            if (row.size() > 0)
+            {
+                added += 1;
+                for (String col : row.keySet())
+                    if (!hasColumn(col))
+                        addColumn(col, new EmptyColumn(), size);
+            }
+        if (added == 0)
+            return size - 1;
+
+        for (Map.Entry<String, Series> e : entrySet())
+        {
+            Series s = e.getValue();
+            s.ensureCapacity(size + added);
+            for (Row row : rows)
+                if (row.size() > 0)
+                    s.add(row.getOrDefault(e.getKey(), nullElement()));
+        }
+        return countRows() - 1;
+    }
+
+
+    /**
+     * Appends all rows of another dataframe, copying its columns in bulk. Columns missing from
+     * either dataframe are filled with blank cells
+     * @param other the dataframe whose rows will be appended. It is not modified
+     * @return index of the last added row
+     */
+    public int appendAll(DataFrame other)
+    {
+        DataFrame source = other.snapshot();
+        synchronized (this)
+        {
+            int size = countRows();
+            int added = source.countRows();
+            if (added == 0)
+                return size - 1;
+            for (String col : source.keySet())
+                if (!hasColumn(col))
+                    addColumn(col, new EmptyColumn(), size);
+
+            for (Map.Entry<String, Series> e : entrySet())
+            {
+                Series s = source.get(e.getKey());
+                if (s == null)
+                    e.getValue().appendBlanks(added);
+                else
+                    e.getValue().append(s);
+            }
+            return countRows() - 1;
+        }
+    }
+
+
+    /**
+     * Concatenates dataframes into a new one. The result has the union of their columns, in order
+     * of appearance, and the name of the first dataframe
+     * @param frames the dataframes to concatenate
+     * @return the concatenated dataframe
+     */
+    public static DataFrame concat(DataFrame... frames)
+    {
+        DataFrame[] snapshots = new DataFrame[frames.length];
+        int rows = 0;
+        for (int i = 0; i < frames.length; i++)
+        {
+            snapshots[i] = frames[i].snapshot();
+            rows += snapshots[i].countRows();
+        }
+
+        DataFrame result = new DataFrame((frames.length > 0)? frames[0].getName() : null);
+        if (frames.length > 0)
+            result.indexColumn = frames[0].getIndex();
+        for (DataFrame df : snapshots)
+            for (String col : df.keySet())
+                if (!result.hasColumn(col))
+                    result.addColumn(col, new EmptyColumn(), 0);
+        result.ensureCapacity(rows);
+        for (DataFrame df : snapshots)
+            result.appendAll(df);
+        return result;
+    }
+
+
+    /**
+     * Pre-allocates the storage of all columns for the given number of rows
+     * @param rows the expected number of rows
+     */
+    public synchronized void ensureCapacity(int rows)
+    {
+        for (Series s : values())
+            s.ensureCapacity(rows);
+    }
+
+
+    /**
+     * Adds a new column, filled with blank cells up to the given number of rows
+     * @param name name of the column
+     * @param column empty column to store the cells
+     * @param rows number of blank cells
+     * @return the series of the new column
+     */
+    private Series addColumn(String name, Column column, int rows)
+    {
+        Series s = new Series(column);
+        s.setCapacity(capacity);
+        s.appendBlanks(rows);
+        s.setTrackStatistics(trackStatistics);
+        put(name, s);
+        return s;
+    }
+
+
+    /**
+     * Binds the columns of a schema, creating the missing ones
+     * @param schema the schema to bind
+     */
+    private void bind(Schema schema)
+    {
+        int size = countRows();
+        Series[] bound = new Series[schema.size()];
+        for (int i = 0; i < schema.size(); i++)
+        {
+            Series s = get(schema.getName(i));
+            if (s == null)
+                s = addColumn(schema.getName(i), Columns.newColumn(schema.getType(i)), size);
+            bound[i] = s;
+        }
+        List<Series> unbound = new ArrayList<>();
+        for (Map.Entry<String, Series> e : entrySet())
+            if (schema.indexOf(e.getKey()) < 0)
+                unbound.add(e.getValue());
+
+        boundSeries = bound;
+        unboundSeries = unbound.toArray(new Series[0]);
+        boundSchema = schema;
+        boundVersion = structureVersion;
+    }
+
+
+    @Override
+    public synchronized Series put(String key, Series value)
+    {
+        structureVersion += 1;
+        return super.put(key, value);
+    }
+
+
+    @Override
+    public synchronized void putAll(Map<? extends String, ? extends Series> m)
+    {
+        structureVersion += 1;
+        super.putAll(m);
+    }
+
+
+    @Override
+    public synchronized Series remove(Object key)
+    {
+        structureVersion += 1;
+        return super.remove(key);
+    }
+
+
+    @Override
+    public synchronized void clear()
+    {
+        structureVersion += 1;
+        super.clear();
+    }
+
+
     /**
      *
      * @param builder
@@ -199,6 +651,32 @@ public class DataFrame extends LinkedHashMap<String, Series>
         return result;
     }
 
+
+    /**
+     * Maps each column to a result. Unlike forEachColumn(), fun is applied to snapshots of the
+     * columns taken under the dataframe's lock and runs outside of it, so changes made by fun are
+     * not seen by this dataframe. If parallel execution is enabled (see ColumnExecutor) fun may be
+     * called concurrently on different columns, so it must not modify shared state
+     * @param fun function (column_name, column_serie) -> result
+     * @param <R> class of the result
+     * @return result of fun, in column order
+     */
+    public <R> List<R> mapColumns(BiFunction<String, Series, R> fun)
+    {
+        String[] names;
+        Series[] series;
+        int rows;
+        synchronized (this)
+        {
+            names = columns();
+            series = new Series[names.length];
+            for (int i = 0; i < names.length; i++)
+                series[i] = get(names[i]).snapshot();
+            rows = countRows();
+        }
+        return ColumnExecutor.map(names, series, rows, fun);
+    }
+
     /**
      * Pops row with the given rowNum
      * @param rowNum
@@ -210,7 +688,8 @@ public class DataFrame extends LinkedHashMap<String, Series>
             return null;
 
         Row res = new Row();
-        forEachColumn((name, serie) -> res.put(name, serie.remove(rowNum)));
+        for (Map.Entry<String, Series> e : entrySet())
+            res.put(e.getKey(), e.getValue().remove(rowNum));
         return res;
     }
 
@@ -230,8 +709,11 @@ public class DataFrame extends LinkedHashMap<String, Series>
     {
         if (rowNum < 0 || rowNum > countRows())
             return null;
-        List<Object> row = forEachColumn((name, serie) -> serie.get(rowNum));
-        return row.toArray();
+        Object[] row = new Object[size()];
+        int i = 0;
+        for (Series s : values())
+            row[i++] = s.get(rowNum);
+        return row;
     }
 
     public synchronized Row getRow(int rowNum)
@@ -239,11 +721,34 @@ public class DataFrame extends LinkedHashMap<String, Series>
         if (rowNum < 0 || rowNum > countRows())
             return null;
         Row row = new Row();
-        forEachColumn((name, serie) -> row.put(name, serie.get(rowNum)));
+        for (Map.Entry<String, Series> e : entrySet())
+            row.put(e.getKey(), e.getValue().get(rowNum));
         return row;
     }
 
 
+    /**
+     * Returns a stream over the rows of a snapshot of this dataframe (see snapshot()), so that the
+     * dataframe can be modified while the stream is consumed. Rows are read through a reusable
+     * RowCursor per split of the stream rather than materialised, so that parallel streams (see
+     * Stream.parallel()) scale across cores without allocating an object per row
+     * @return a sequential stream of the rows
+     */
+    public synchronized Stream<RowCursor> rows()
+    {
+        DataFrame snapshot = snapshot();
+        String[] names = snapshot.columns();
+        Column[] columns = new Column[names.length];
+        Map<String, Integer> positions = new HashMap<>();
+        for (int c = 0; c < names.length; c++)
+        {
+            positions.put(names[c], c);
+            columns[c] = snapshot.get(names[c]).getColumn();
+        }
+        return StreamSupport.stream(new RowSpliterator(names, positions, columns, 0, snapshot.countRows()), false);
+    }
+
+
     public synchronized <R> List<R> forEachRowArray(Function<Object[], R> fun)
     {
         ArrayList<R> result = new ArrayList<>();
@@ -269,20 +774,153 @@ public class DataFrame extends LinkedHashMap<String, Series>
     }
 
     /**
-     * Transform the dataframe a row at a time and in-place
-     * @param fun function manipulating rows
+     * Transform the dataframe a row at a time. The result is a snapshot of this dataframe (see
+     * snapshot()) in which only the cells changed by fun are written, so that columns and chunks
+     * that are left untouched are shared rather than copied. Cells whose key is removed from the row
+     * are blanked, columns removed from all rows are dropped, and rows emptied by fun are dropped
+     * @param fun function manipulating rows. Each row is a new object, so fun may keep references to it
      * @return The transformed dataframe
      */
     public synchronized DataFrame transformByRow(Consumer<Row> fun)
     {
-        DataFrame df = new DataFrame(getName());
-        forEachRow((row) -> {
-            Row r = row.clone();
-            fun.accept(r);
-            df.appendRow(r);
-            return null;
-        });
-        return df;
+        DataFrame df = snapshot();
+        int rows = countRows();
+        String[] columns = columns();
+        Series[] series = values().toArray(new Series[0]);
+        boolean[] present = new boolean[columns.length];
+        BitSet emptied = new BitSet(rows);
+        for (int i = 0; i < rows; i++)
+        {
+            Row row = new Row();
+            for (int c = 0; c < columns.length; c++)
+                row.put(columns[c], series[c].get(i));
+            fun.accept(row);
+            if (row.isEmpty())
+            {
+                emptied.set(i);
+                continue;
+            }
+
+            for (int c = 0; c < columns.length; c++)
+            {
+                if (row.containsKey(columns[c]))
+                    present[c] = true;
+                else if (!series[c].getColumn().isBlank(i))
+                    df.get(columns[c]).set(i, nullElement());
+            }
+            for (Map.Entry<String, Object> e : row.entrySet())
+            {
+                Series target = df.get(e.getKey());
+                if (target == null)
+                    target = df.addColumn(e.getKey(), new EmptyColumn(), rows);
+                if (!Objects.equals(target.get(i), e.getValue()))
+                    target.set(i, e.getValue());
+            }
+        }
+        for (int c = 0; c < columns.length; c++)
+            if (!present[c])
+                df.remove(columns[c]);
+        if (emptied.isEmpty())
+            return df;
+
+        // keep the runs of rows left between the emptied ones
+        List<DataFrame> kept = new ArrayList<>();
+        for (int from = emptied.nextClearBit(0); from < rows; from = emptied.nextClearBit(from))
+        {
+            int to = emptied.nextSetBit(from);
+            if (to < 0)
+                to = rows;
+            kept.add(df.slice(from, to));
+            from = to;
+        }
+        if (kept.isEmpty())
+            return new DataFrame(getName());
+        return concat(kept.toArray(new DataFrame[0]));
+    }
+
+    /**
+     * Writes the last rows of the given columns into a buffer in row-major order, starting at the
+     * buffer's position and advancing it. Cells are read as primitives (see Series.getDouble()),
+     * blank and non numeric cells are written as NaN. The dataframe is neither modified nor copied
+     * @param buffer the buffer to write into
+     * @param rows number of rows to write. If the dataframe has fewer rows, all of them are written
+     * @param columns columns to write, or none to write all columns in order
+     * @return the number of rows written
+     */
+    public synchronized int exportFloats(FloatBuffer buffer, int rows, String... columns)
+    {
+        int count = Math.min(rows, countRows());
+        int from = countRows() - count;
+        int width = (columns.length == 0)? size() : columns.length;
+        if (buffer.remaining() < count * width)
+            throw new BufferOverflowException();
+
+        int base = buffer.position();
+        Iterator<Series> all = values().iterator();
+        for (int c = 0; c < width; c++)
+        {
+            Series s = (columns.length == 0)? all.next() : exportedSeries(columns[c]);
+            if (width == 1 && s.getColumn() instanceof AbstractFloatColumn)
+                ((AbstractFloatColumn<?>) s.getColumn()).exportTo(from, from + count, buffer);
+            else
+                for (int r = 0; r < count; r++)
+                    buffer.put(base + r * width + c, (float) s.getDouble(from + r));
+        }
+        buffer.position(base + count * width);
+        return count;
+    }
+
+
+    /**
+     * Same as exportFloats(FloatBuffer, int, String...), writing floats in the byte order of the buffer
+     * @param buffer the buffer to write into
+     * @param rows number of rows to write. If the dataframe has fewer rows, all of them are written
+     * @param columns columns to write, or none to write all columns in order
+     * @return the number of rows written
+     */
+    public synchronized int exportFloats(ByteBuffer buffer, int rows, String... columns)
+    {
+        int count = Math.min(rows, countRows());
+        int from = countRows() - count;
+        int width = (columns.length == 0)? size() : columns.length;
+        if (buffer.remaining() < count * width * Float.BYTES)
+            throw new BufferOverflowException();
+
+        int base = buffer.position();
+        Iterator<Series> all = values().iterator();
+        for (int c = 0; c < width; c++)
+        {
+            Series s = (columns.length == 0)? all.next() : exportedSeries(columns[c]);
+            if (width == 1 && s.getColumn() instanceof AbstractFloatColumn)
+            {
+                // bulk copy through a float view in the byte order of the buffer
+                ((AbstractFloatColumn<?>) s.getColumn()).exportTo(from, from + count, buffer.asFloatBuffer());
+                continue;
+            }
+            for (int r = 0; r < count; r++)
+                buffer.putFloat(base + (r * width + c) * Float.BYTES, (float) s.getDouble(from + r));
+        }
+        buffer.position(base + count * width * Float.BYTES);
+        return count;
+    }
+
+
+    private Series exportedSeries(String column)
+    {
+        Series s = get(column);
+        if (s == null)
+            throw new IllegalArgumentException(String.format("Column %s does not exist", column));
+        return s;
+    }
+
+
+    /**
+     * Starts a lazy plan of element-wise operations on the columns of this dataframe
+     * @return a new lazy plan
+     */
+    public LazyFrame lazy()
+    {
+        return new LazyFrame(this);
     }
 
     /**
@@ -290,26 +928,95 @@ public class DataFrame extends LinkedHashMap<String, Series>
      * @param fun function manipulating columns
      * @return The transformed dataframe
      */
-    public synchronized DataFrame transformByColumn(BiConsumer<String, Series> fun)
+    public DataFrame transformByColumn(BiConsumer<String, Series> fun)
     {
-        DataFrame df = new DataFrame(getName());
-        forEachColumn((name, col) -> {
-            Series s = col.clone();
-            fun.accept(name, s);
-            df.put(name, s);
-            return null;
+        DataFrame source = snapshot();
+        List<Series> transformed = source.mapColumns((name, col) -> {
+            fun.accept(name, col);
+            return col;
         });
+        DataFrame df = new DataFrame(getName());
+        int i = 0;
+        for (String name : source.keySet())
+            df.put(name, transformed.get(i++));
         return df;
     }
 
+    /**
+     * Returns a copy of this dataframe sharing the columns' storage until either dataframe is
+     * modified. Takes time proportional to the number of columns and chunks rather than to the
+     * number of cells, so that readers can work on a consistent copy without blocking writers
+     * @return a snapshot of this dataframe
+     */
+    public synchronized DataFrame snapshot()
+    {
+        DataFrame snapshot = new DataFrame(getName());
+        snapshot.capacity = capacity;
+        snapshot.trackStatistics = trackStatistics;
+        snapshot.indexColumn = indexColumn;
+        for (Map.Entry<String, Series> e : entrySet())
+            snapshot.put(e.getKey(), e.getValue().snapshot());
+        return snapshot;
+    }
+
+    /**
+     * Returns a copy of this dataframe. Columns are copied on write, see snapshot()
+     * @return a copy of this dataframe
+     */
     @NonNull
     @Override
     public synchronized DataFrame clone()
     {
-        DataFrame clone = new DataFrame();
-        clone.setName(getName());
-        forEachColumn((name, serie) -> clone.put(name, serie.clone()));
-        return clone;
+        return snapshot();
+    }
+
+
+    /**
+     * Returns a projection of some columns of this dataframe, in the given order. The columns share
+     * their storage with this dataframe until either dataframe is modified, see snapshot()
+     * @param columns the columns to select
+     * @return a dataframe with the selected columns
+     * @throws IllegalArgumentException if a column doesn't exist
+     */
+    public synchronized DataFrame select(String... columns)
+    {
+        DataFrame projection = new DataFrame(getName());
+        projection.capacity = capacity;
+        projection.trackStatistics = trackStatistics;
+        for (String column : columns)
+        {
+            Series s = get(column);
+            if (s == null)
+                throw new IllegalArgumentException(String.format("Column %s does not exist", column));
+            projection.put(column, s.snapshot());
+        }
+        if (projection.hasColumn(indexColumn))
+            projection.indexColumn = indexColumn;
+        return projection;
+    }
+
+
+    /**
+     * Renames a column in place, keeping its position and its series
+     * @param column the column to rename
+     * @param name the new name of the column
+     * @throws IllegalArgumentException if the column doesn't exist or the name is already taken
+     */
+    public synchronized void rename(String column, String name)
+    {
+        if (!hasColumn(column))
+            throw new IllegalArgumentException(String.format("Column %s does not exist", column));
+        if (column.equals(name))
+            return;
+        if (hasColumn(name))
+            throw new IllegalArgumentException(String.format("Column %s already exists", name));
+        Map<String, Series> columns = new LinkedHashMap<>(this);
+        super.clear();
+        for (Map.Entry<String, Series> e : columns.entrySet())
+            super.put(e.getKey().equals(column)? name : e.getKey(), e.getValue());
+        if (column.equals(indexColumn))
+            indexColumn = name;
+        structureVersion += 1;
     }
 
 }
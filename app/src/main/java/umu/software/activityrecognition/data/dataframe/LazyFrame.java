@@ -0,0 +1,250 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+
+
+/**
+ * Lazy plan of element-wise operations on the columns of a dataframe, eg.
+ * df.lazy().sub(mean).div(std).collect(). Operations are only recorded until collect(), which
+ * fuses them into a single operator per column and materialises each column once
+ */
+public class LazyFrame
+{
+    /**
+     * Step of the plan
+     */
+    private interface Step
+    {
+        /**
+         * Binds the step to a column
+         * @param column name of the column
+         * @param serie the source series
+         * @param upstream fused operator of the previous steps, or null if the values are untouched
+         * @return the operator of this step, or null to leave the column untouched
+         */
+        DoubleUnaryOperator bind(String column, Series serie, DoubleUnaryOperator upstream);
+    }
+
+
+    private final DataFrame source;
+    private final List<Step> steps = new ArrayList<>();
+
+
+    LazyFrame(DataFrame source)
+    {
+        this.source = source;
+    }
+
+
+    /**
+     * Subtracts fixed values from the columns. Columns that have a missing or null value in 'values' will be ignored.
+     * @param values the values to subtract from the columns
+     * @return this plan
+     */
+    public LazyFrame sub(DataFrame.Row values)
+    {
+        return withValues(values, (x, v) -> x - v);
+    }
+
+
+    /**
+     * Adds fixed values to the columns. Columns that have a missing or null value in 'values' will be ignored.
+     * @param values the values to add to the columns
+     * @return this plan
+     */
+    public LazyFrame add(DataFrame.Row values)
+    {
+        return withValues(values, Double::sum);
+    }
+
+
+    /**
+     * Multiplies the columns by fixed values. Columns that have a missing or null value in 'values' will be ignored.
+     * @param values the values to multiply the columns with
+     * @return this plan
+     */
+    public LazyFrame mul(DataFrame.Row values)
+    {
+        return withValues(values, (x, v) -> x * v);
+    }
+
+
+    /**
+     * Divides the columns by fixed values. Columns that have a missing or null value in 'values' will be ignored.
+     * @param values the values to divide the columns with
+     * @return this plan
+     */
+    public LazyFrame div(DataFrame.Row values)
+    {
+        return withValues(values, (x, v) -> x / v);
+    }
+
+
+    /**
+     * Applies an operator to the numeric values of all columns
+     * @param operator the operator to apply
+     * @return this plan
+     */
+    public LazyFrame map(DoubleUnaryOperator operator)
+    {
+        steps.add((column, serie, upstream) -> operator);
+        return this;
+    }
+
+
+    /**
+     * Subtracts from each column its mean value
+     * @return this plan
+     */
+    public LazyFrame subMean()
+    {
+        steps.add((column, serie, upstream) -> {
+            double mean = mean(serie, upstream);
+            return x -> x - mean;
+        });
+        return this;
+    }
+
+
+    /**
+     * Divides each column by its standard deviation
+     * @return this plan
+     */
+    public LazyFrame divStd()
+    {
+        steps.add((column, serie, upstream) -> {
+            double std = Math.sqrt(variance(serie, upstream));
+            return x -> x / (std + 1e-6);
+        });
+        return this;
+    }
+
+
+    /**
+     * Normalizes each column, setting its values between 0 and 1
+     * @return this plan
+     */
+    public LazyFrame minMaxNormalize()
+    {
+        steps.add((column, serie, upstream) -> {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            if (upstream == null)
+            {
+                min = serie.min();
+                max = serie.max();
+            }
+            else
+                for (int i = 0; i < serie.size(); i++)
+                {
+                    double value = value(serie, i, upstream);
+                    if (value < min)
+                        min = value;
+                    if (value > max)
+                        max = value;
+                }
+            double offset = min;
+            double range = max - min;
+            return x -> (x - offset) / range;
+        });
+        return this;
+    }
+
+
+    /**
+     * Executes the plan, fusing the operations of each column and materialising it in a single pass
+     * @return the transformed dataframe
+     */
+    public DataFrame collect()
+    {
+        DataFrame frame = source.snapshot();
+        List<Series> columns = frame.mapColumns((column, serie) -> {
+            DoubleUnaryOperator fused = null;
+            for (Step step : steps)
+            {
+                DoubleUnaryOperator operator = step.bind(column, serie, fused);
+                if (operator != null)
+                    fused = (fused == null)? operator : fused.andThen(operator);
+            }
+            return (fused == null)? serie : serie.mapDouble(fused);
+        });
+        DataFrame result = new DataFrame(frame.getName());
+        int i = 0;
+        for (String column : frame.keySet())
+            result.put(column, columns.get(i++));
+        return result;
+    }
+
+
+    private LazyFrame withValues(DataFrame.Row values, DoubleBinaryOperator operator)
+    {
+        steps.add((column, serie, upstream) -> {
+            double value = Columns.toDouble(values.get(column));
+            if (Double.isNaN(value))
+                return null;
+            return x -> operator.applyAsDouble(x, value);
+        });
+        return this;
+    }
+
+
+    /**
+     * Returns a value of the series mapped by an operator
+     * @return the mapped value, or NaN if the value is blank or not numeric
+     */
+    private static double value(Series serie, int index, DoubleUnaryOperator operator)
+    {
+        double value = serie.getDouble(index);
+        return Double.isNaN(value)? value : operator.applyAsDouble(value);
+    }
+
+
+    /**
+     * Same as Series.mean(), over the values mapped by upstream
+     */
+    private static double mean(Series serie, DoubleUnaryOperator upstream)
+    {
+        if (upstream == null)
+            return serie.mean();
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < serie.size(); i++)
+        {
+            double value = value(serie, i, upstream);
+            if (!Double.isNaN(value))
+            {
+                sum += value;
+                n += 1;
+            }
+        }
+        return n == 0 ? 0 : sum / serie.size();
+    }
+
+
+    /**
+     * Same as Series.variance(), over the values mapped by upstream
+     */
+    private static double variance(Series serie, DoubleUnaryOperator upstream)
+    {
+        if (upstream == null)
+            return serie.variance();
+        double mean = mean(serie, upstream);
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < serie.size(); i++)
+        {
+            double value = value(serie, i, upstream);
+            if (!Double.isNaN(value))
+            {
+                sum += (value - mean) * (value - mean);
+                n += 1;
+            }
+        }
+        return n == 0 ? 0 : sum / (serie.size() + 1e-6);
+    }
+}
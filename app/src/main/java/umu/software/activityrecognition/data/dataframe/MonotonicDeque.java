@@ -0,0 +1,118 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.Arrays;
+
+
+/**
+ * Deque keeping the minimum (or maximum) of a sliding window of values in amortized constant time.
+ * Values must be pushed and evicted in FIFO order and are identified by their sequence number
+ */
+public class MonotonicDeque
+{
+    private final boolean keepMaximum;
+    private long[] sequences = new long[16];
+    private double[] values = new double[16];
+    private int head = 0;
+    private int size = 0;
+
+
+    /**
+     * @param keepMaximum whether the deque tracks the maximum rather than the minimum
+     */
+    public MonotonicDeque(boolean keepMaximum)
+    {
+        this.keepMaximum = keepMaximum;
+    }
+
+
+    /**
+     * Pushes a value at the end of the window
+     * @param sequence sequence number of the value
+     * @param value value to push
+     */
+    public void push(long sequence, double value)
+    {
+        while (size > 0)
+        {
+            double last = values[index(size - 1)];
+            if (keepMaximum? last > value : last < value)
+                break;
+            size -= 1;
+        }
+        if (size == values.length)
+            grow();
+        int i = index(size);
+        sequences[i] = sequence;
+        values[i] = value;
+        size += 1;
+    }
+
+
+    /**
+     * Evicts the value with the given sequence number from the start of the window
+     * @param sequence sequence number of the evicted value
+     */
+    public void evict(long sequence)
+    {
+        if (size > 0 && sequences[head] == sequence)
+        {
+            head = index(1);
+            size -= 1;
+        }
+    }
+
+
+    /**
+     * Returns the minimum (or maximum) of the window
+     * @return the minimum (or maximum) of the window, or NaN if the window is empty
+     */
+    public double peek()
+    {
+        return (size == 0)? Double.NaN : values[head];
+    }
+
+
+    /**
+     * Removes all values
+     */
+    public void clear()
+    {
+        head = 0;
+        size = 0;
+    }
+
+
+    /**
+     * Replaces the content of this deque with the content of another one
+     * @param other the deque to copy
+     */
+    public void copyFrom(MonotonicDeque other)
+    {
+        sequences = other.sequences.clone();
+        values = other.values.clone();
+        head = other.head;
+        size = other.size;
+    }
+
+
+    private int index(int i)
+    {
+        int position = head + i;
+        return (position >= values.length)? position - values.length : position;
+    }
+
+
+    private void grow()
+    {
+        long[] newSequences = new long[2 * sequences.length];
+        double[] newValues = new double[2 * values.length];
+        for (int i = 0; i < size; i++)
+        {
+            newSequences[i] = sequences[index(i)];
+            newValues[i] = values[index(i)];
+        }
+        sequences = newSequences;
+        values = newValues;
+        head = 0;
+    }
+}
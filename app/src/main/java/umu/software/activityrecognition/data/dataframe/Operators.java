@@ -1,7 +1,5 @@
 package umu.software.activityrecognition.data.dataframe;
 
-import com.google.common.primitives.Doubles;
-
 import java.util.function.Function;
 
 /**
@@ -17,17 +15,7 @@ public class Operators
      */
     public static DataFrame subtractValuesRowWise(DataFrame df, DataFrame.Row values)
     {
-        return df.transformByColumn((col, serie) -> {
-            if (!values.containsKey(col) || values.get(col) == null)
-                return;
-            for (int i = 0; i < serie.size(); i++)
-            {
-                Object o = serie.get(i);
-                Double parsed = Doubles.tryParse(o.toString());
-                Double parsedValue = Doubles.tryParse(values.get(col).toString());
-                serie.set(i, (parsed != null && parsedValue != null)? parsed - parsedValue : o);
-            }
-        });
+        return df.lazy().sub(values).collect();
     }
 
     /**
@@ -38,17 +26,7 @@ public class Operators
      */
     public static DataFrame divideByValuesRowWise(DataFrame df, DataFrame.Row values)
     {
-        return df.transformByColumn((col, serie) -> {
-            if (!values.containsKey(col) || values.get(col) == null)
-                return;
-            for (int i = 0; i < serie.size(); i++)
-            {
-                Object o = serie.get(i);
-                Double parsed = Doubles.tryParse(o.toString());
-                Double parsedValue = Doubles.tryParse(values.get(col).toString());
-                serie.set(i, (parsed != null && parsedValue != null)? parsed / parsedValue : o);
-            }
-        });
+        return df.lazy().div(values).collect();
     }
 
     /**
@@ -58,15 +36,7 @@ public class Operators
      */
     public static DataFrame subtractMeanColumnWise(DataFrame df)
     {
-        return df.transformByColumn((col, serie) -> {
-            double mean = serie.mean();
-            for (int i = 0; i < serie.size(); i++)
-            {
-                Object o = serie.get(i);
-                Double parsed = Doubles.tryParse(o.toString());
-                serie.set(i, (parsed != null)? parsed - mean : o);
-            }
-        });
+        return df.lazy().subMean().collect();
     }
 
 
@@ -78,15 +48,7 @@ public class Operators
      */
     public static DataFrame divideByStdColumnWise(DataFrame df)
     {
-        return df.transformByColumn((col, serie) -> {
-            double std = serie.std();
-            for (int i = 0; i < serie.size(); i++)
-            {
-                Object o = serie.get(i);
-                Double parsed = Doubles.tryParse(o.toString());
-                serie.set(i, (parsed != null)? parsed / (std+1e-6) : o);
-            }
-        });
+        return df.lazy().divStd().collect();
     }
 
     /**
@@ -97,9 +59,7 @@ public class Operators
      */
     public static DataFrame zscoreColumnWise(DataFrame df)
     {
-        return Operators.divideByStdColumnWise(
-                Operators.subtractMeanColumnWise(df)
-        );
+        return df.lazy().subMean().divStd().collect();
     }
 
     /**
@@ -112,10 +72,7 @@ public class Operators
      */
     public static DataFrame zscoreColumnWise(DataFrame df, DataFrame.Row meanValues, DataFrame.Row stdDeviations)
     {
-        return Operators.divideByValuesRowWise(
-                Operators.subtractValuesRowWise(df, meanValues),
-                stdDeviations
-        );
+        return df.lazy().sub(meanValues).div(stdDeviations).collect();
     }
 
 
@@ -140,18 +97,7 @@ public class Operators
      */
     public static DataFrame minMaxNormalizeColumnWise(DataFrame df)
     {
-
-        return df.transformByColumn((col, serie) -> {
-            double min = serie.min();
-            double max = serie.max();
-            for (int i = 0; i < serie.size(); i++)
-            {
-                Object o = serie.get(i);
-                Double parsed = Doubles.tryParse(o.toString());
-                serie.set(i, (parsed != null) ? (parsed - min) / (max - min) : o);
-            }
-        });
-
+        return df.lazy().minMaxNormalize().collect();
     }
 
 }
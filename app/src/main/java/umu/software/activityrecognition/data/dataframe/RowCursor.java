@@ -0,0 +1,200 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.Map;
+
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.StringColumn;
+
+
+/**
+ * Cursor over the rows of a dataframe, reading cells straight from the columns' storage. The same
+ * cursor is moved from row to row (see DataFrame.rows()), so it must not be kept after the row
+ * is consumed: use toRow() or toArray() to keep a copy of the row
+ */
+public final class RowCursor
+{
+    private final String[] names;
+    private final Map<String, Integer> positions;
+    private final Column[] columns;
+    private int row = -1;
+
+
+    RowCursor(String[] names, Map<String, Integer> positions, Column[] columns)
+    {
+        this.names = names;
+        this.positions = positions;
+        this.columns = columns;
+    }
+
+
+    void moveTo(int row)
+    {
+        this.row = row;
+    }
+
+
+    /**
+     * Returns the index of the current row in the dataframe
+     * @return the index of the current row
+     */
+    public int getRowIndex()
+    {
+        return row;
+    }
+
+
+    /**
+     * Returns the number of columns
+     * @return the number of columns
+     */
+    public int size()
+    {
+        return columns.length;
+    }
+
+
+    /**
+     * Returns the position of a column, to read cells without looking columns up by name
+     * @param column name of the column
+     * @return the position of the column, or -1 if it doesn't exist
+     */
+    public int indexOf(String column)
+    {
+        Integer position = positions.get(column);
+        return (position == null)? -1 : position;
+    }
+
+
+    /**
+     * Returns the (boxed) value of a cell
+     * @param column position of the column
+     * @return the value of the cell
+     */
+    public Object get(int column)
+    {
+        return columns[column].get(row);
+    }
+
+    public Object get(String column)
+    {
+        return get(position(column));
+    }
+
+
+    /**
+     * Returns a cell as a double, without boxing. See Column.getDouble()
+     * @param column position of the column
+     * @return the value of the cell, or NaN if it is blank or not numeric
+     */
+    public double getDouble(int column)
+    {
+        return columns[column].getDouble(row);
+    }
+
+    public double getDouble(String column)
+    {
+        return getDouble(position(column));
+    }
+
+
+    /**
+     * Returns a cell as a long, without boxing. See Column.getLong()
+     * @param column position of the column
+     * @return the value of the cell. Blank and non numeric cells are 0
+     */
+    public long getLong(int column)
+    {
+        return columns[column].getLong(row);
+    }
+
+    public long getLong(String column)
+    {
+        return getLong(position(column));
+    }
+
+
+    /**
+     * Returns a cell as a float, without boxing
+     * @param column position of the column
+     * @return the value of the cell, or NaN if it is blank or not numeric
+     */
+    public float getFloat(int column)
+    {
+        return (float) columns[column].getDouble(row);
+    }
+
+    public float getFloat(String column)
+    {
+        return getFloat(position(column));
+    }
+
+
+    /**
+     * Returns a cell as a string. Strings of string columns are read from their dictionary
+     * @param column position of the column
+     * @return the string of the cell, or null
+     */
+    public String getString(int column)
+    {
+        if (columns[column] instanceof StringColumn)
+            return ((StringColumn) columns[column]).getString(row);
+        Object value = columns[column].get(row);
+        return (value == null)? null : value.toString();
+    }
+
+    public String getString(String column)
+    {
+        return getString(position(column));
+    }
+
+
+    /**
+     * Returns whether a cell is blank
+     * @param column position of the column
+     * @return whether the cell is blank
+     */
+    public boolean isBlank(int column)
+    {
+        return columns[column].isBlank(row);
+    }
+
+    public boolean isBlank(String column)
+    {
+        return isBlank(position(column));
+    }
+
+
+    /**
+     * Copies the current row into a new Row
+     * @return a copy of the current row
+     */
+    public DataFrame.Row toRow()
+    {
+        DataFrame.Row copy = new DataFrame.Row();
+        for (int c = 0; c < columns.length; c++)
+            copy.put(names[c], columns[c].get(row));
+        return copy;
+    }
+
+
+    /**
+     * Copies the current row into a new array, in order of columns
+     * @return a copy of the current row
+     */
+    public Object[] toArray()
+    {
+        Object[] copy = new Object[columns.length];
+        for (int c = 0; c < columns.length; c++)
+            copy[c] = columns[c].get(row);
+        return copy;
+    }
+
+
+    private int position(String column)
+    {
+        Integer position = positions.get(column);
+        if (position == null)
+            throw new IllegalArgumentException(String.format("Column %s does not exist", column));
+        return position;
+    }
+}
@@ -0,0 +1,86 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import umu.software.activityrecognition.data.dataframe.columns.ChunkedColumn;
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+
+
+/**
+ * Spliterator over a range of rows of a set of columns, passing the same RowCursor for all of its
+ * rows. Ranges are split in halves aligned to the columns' chunks, each with its own cursor
+ */
+class RowSpliterator implements Spliterator<RowCursor>
+{
+    private static final int MIN_SPLIT_ROWS = ChunkedColumn.CHUNK_SIZE;
+
+    private final String[] names;
+    private final Map<String, Integer> positions;
+    private final Column[] columns;
+    private final RowCursor cursor;
+    private int next;
+    private final int end;
+
+
+    RowSpliterator(String[] names, Map<String, Integer> positions, Column[] columns, int from, int to)
+    {
+        this.names = names;
+        this.positions = positions;
+        this.columns = columns;
+        this.cursor = new RowCursor(names, positions, columns);
+        this.next = from;
+        this.end = to;
+    }
+
+
+    @Override
+    public boolean tryAdvance(Consumer<? super RowCursor> action)
+    {
+        if (next >= end)
+            return false;
+        cursor.moveTo(next++);
+        action.accept(cursor);
+        return true;
+    }
+
+
+    @Override
+    public void forEachRemaining(Consumer<? super RowCursor> action)
+    {
+        for (; next < end; next++)
+        {
+            cursor.moveTo(next);
+            action.accept(cursor);
+        }
+    }
+
+
+    @Override
+    public Spliterator<RowCursor> trySplit()
+    {
+        if (end - next < 2 * MIN_SPLIT_ROWS)
+            return null;
+        int mid = (next + (end - next) / 2) & ~(ChunkedColumn.CHUNK_SIZE - 1);
+        if (mid <= next)
+            return null;
+        RowSpliterator prefix = new RowSpliterator(names, positions, columns, next, mid);
+        next = mid;
+        return prefix;
+    }
+
+
+    @Override
+    public long estimateSize()
+    {
+        return end - next;
+    }
+
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,167 @@
+package umu.software.activityrecognition.data.dataframe;
+
+
+/**
+ * Statistics of a stream of values updated online: count, mean and M2 with Welford's algorithm,
+ * minimum and maximum with monotonic deques. Values can be evicted in FIFO order, as for sliding windows.
+ * NaN values are counted in the window but ignored by the statistics
+ */
+public class RunningStatistics
+{
+    private final MonotonicDeque minimum = new MonotonicDeque(false);
+    private final MonotonicDeque maximum = new MonotonicDeque(true);
+    private long pushed = 0;
+    private long evicted = 0;
+    private int count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+
+    /**
+     * Adds a value at the end of the window
+     * @param value value to add
+     */
+    public void push(double value)
+    {
+        long sequence = pushed++;
+        if (Double.isNaN(value))
+            return;
+        count += 1;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        minimum.push(sequence, value);
+        maximum.push(sequence, value);
+    }
+
+
+    /**
+     * Evicts the first value of the window
+     * @param value the evicted value. Must be the oldest value that was not evicted yet
+     */
+    public void evict(double value)
+    {
+        long sequence = evicted++;
+        if (Double.isNaN(value))
+            return;
+        minimum.evict(sequence);
+        maximum.evict(sequence);
+        if (count == 1)
+        {
+            count = 0;
+            mean = 0;
+            m2 = 0;
+            return;
+        }
+        double delta = value - mean;
+        mean -= delta / (count - 1);
+        m2 = Math.max(0, m2 - delta * (value - mean));
+        count -= 1;
+    }
+
+
+    /**
+     * Removes all values
+     */
+    public void clear()
+    {
+        minimum.clear();
+        maximum.clear();
+        pushed = 0;
+        evicted = 0;
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+
+    /**
+     * Returns the number of values in the window, including NaN values
+     * @return the number of values in the window
+     */
+    public long getSize()
+    {
+        return pushed - evicted;
+    }
+
+    /**
+     * Returns the number of non-NaN values in the window
+     * @return the number of non-NaN values in the window
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the non-NaN values
+     * @return the mean or NaN if there are no values
+     */
+    public double getMean()
+    {
+        return (count == 0)? Double.NaN : mean;
+    }
+
+    /**
+     * Returns the sum of the squared differences from the mean
+     * @return the sum of the squared differences from the mean
+     */
+    public double getM2()
+    {
+        return m2;
+    }
+
+    /**
+     * Returns the population variance of the non-NaN values
+     * @return the variance or NaN if there are no values
+     */
+    public double getVariance()
+    {
+        return (count == 0)? Double.NaN : m2 / count;
+    }
+
+    /**
+     * Returns the population standard deviation of the non-NaN values
+     * @return the standard deviation or NaN if there are no values
+     */
+    public double getStd()
+    {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Returns the minimum of the non-NaN values
+     * @return the minimum or NaN if there are no values
+     */
+    public double getMin()
+    {
+        return minimum.peek();
+    }
+
+    /**
+     * Returns the maximum of the non-NaN values
+     * @return the maximum or NaN if there are no values
+     */
+    public double getMax()
+    {
+        return maximum.peek();
+    }
+
+
+    /**
+     * Returns a copy of these statistics
+     * @return a copy of these statistics
+     */
+    public RunningStatistics copy()
+    {
+        RunningStatistics copy = new RunningStatistics();
+        copy.minimum.copyFrom(minimum);
+        copy.maximum.copyFrom(maximum);
+        copy.pushed = pushed;
+        copy.evicted = evicted;
+        copy.count = count;
+        copy.mean = mean;
+        copy.m2 = m2;
+        return copy;
+    }
+}
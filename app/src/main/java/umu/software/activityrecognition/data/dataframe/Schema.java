@@ -0,0 +1,157 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+
+
+/**
+ * Fixed and ordered set of columns declared once by a supplier. Each column is identified by its
+ * index, so that rows (see SlotRow) can be written without hashing column names
+ */
+public final class Schema
+{
+    /**
+     * Schema builder
+     */
+    public static class Builder
+    {
+        private final List<String> names = new ArrayList<>();
+        private final List<ColumnType> types = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Adds a column to the schema. Columns already added are ignored
+         * @param name name of the column
+         * @param type expected type of the column's values
+         * @return this builder
+         */
+        public Builder add(String name, ColumnType type)
+        {
+            if (!names.contains(name))
+            {
+                names.add(name.intern());
+                types.add(type);
+            }
+            return this;
+        }
+
+        /**
+         * Adds all columns of another schema
+         * @param schema the schema whose columns will be added
+         * @return this builder
+         */
+        public Builder addAll(Schema schema)
+        {
+            for (int i = 0; i < schema.size(); i++)
+                add(schema.getName(i), schema.getType(i));
+            return this;
+        }
+
+        public Schema build()
+        {
+            return new Schema(names.toArray(new String[0]), types.toArray(new ColumnType[0]));
+        }
+    }
+
+
+    private final String[] names;
+    private final ColumnType[] types;
+    private final HashMap<String, Integer> indices = new HashMap<>();
+
+
+    private Schema(String[] names, ColumnType[] types)
+    {
+        this.names = names;
+        this.types = types;
+        for (int i = 0; i < names.length; i++)
+            indices.put(names[i], i);
+    }
+
+
+    /**
+     * Start constructing a Schema through a builder
+     * @return a schema builder
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+
+    /**
+     * Returns a schema containing the columns of both schemas, in order
+     * @param first first schema
+     * @param second second schema
+     * @return the merged schema
+     */
+    public static Schema merge(Schema first, Schema second)
+    {
+        return builder().addAll(first).addAll(second).build();
+    }
+
+
+    /**
+     * Returns the number of columns
+     * @return the number of columns
+     */
+    public int size()
+    {
+        return names.length;
+    }
+
+
+    /**
+     * Returns the name of a column
+     * @param index index of the column
+     * @return the name of the column
+     */
+    public String getName(int index)
+    {
+        return names[index];
+    }
+
+
+    /**
+     * Returns the expected type of a column
+     * @param index index of the column
+     * @return the expected type of the column
+     */
+    public ColumnType getType(int index)
+    {
+        return types[index];
+    }
+
+
+    /**
+     * Returns the index of a column
+     * @param name name of the column
+     * @return the index of the column, or -1 if the column is not part of the schema
+     */
+    public int indexOf(String name)
+    {
+        Integer index = indices.get(name);
+        return (index == null)? -1 : index;
+    }
+
+
+    /**
+     * Creates a new empty row for this schema. Rows can be reused after being cleared
+     * @return a new empty row
+     */
+    public SlotRow newRow()
+    {
+        return new SlotRow(this);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(names);
+    }
+}
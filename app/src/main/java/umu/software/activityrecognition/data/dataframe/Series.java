@@ -4,22 +4,503 @@ import android.annotation.SuppressLint;
 
 import androidx.annotation.NonNull;
 
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Supplier;
 
-import com.google.common.primitives.Doubles;
+import umu.software.activityrecognition.data.dataframe.columns.AbstractFloatColumn;
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+import umu.software.activityrecognition.data.dataframe.columns.DoubleColumn;
+import umu.software.activityrecognition.data.dataframe.columns.EmptyColumn;
+import umu.software.activityrecognition.data.dataframe.columns.IntColumn;
+import umu.software.activityrecognition.data.dataframe.columns.LongColumn;
+import umu.software.activityrecognition.data.dataframe.columns.SliceColumn;
 
 
-public class Series extends ArrayList<Object> {
+/**
+ * List view over a typed column. The column type is inferred from the stored values and widened
+ * when a value of a different type is stored
+ */
+public class Series extends AbstractList<Object> implements RandomAccess
+{
+    private Column column;
+    private RunningStatistics statistics = null;
+    private boolean statisticsValid = false;
+
+
+    public Series()
+    {
+        this(new EmptyColumn());
+    }
+
+
+    public Series(Column column)
+    {
+        this.column = column;
+    }
+
+
+    /**
+     * Returns the column storing the values of this series
+     * @return the column storing the values of this series
+     */
+    public Column getColumn()
+    {
+        return column;
+    }
+
+
+    /**
+     * Returns the storage type of this series
+     * @return the storage type of this series
+     */
+    public ColumnType getType()
+    {
+        return column.getType();
+    }
+
+
+    @Override
+    public Object get(int index)
+    {
+        return column.get(index);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return column.size();
+    }
+
+
+    @Override
+    public boolean add(Object value)
+    {
+        column = Columns.promote(column, value);
+        onAppending();
+        column.add(value);
+        onAppended();
+        modCount += 1;
+        return true;
+    }
+
+
+    /**
+     * Appends a primitive value, without boxing it if the series already stores floats
+     * @param value value to append
+     */
+    public void addFloat(float value)
+    {
+        if (!(column instanceof AbstractFloatColumn))
+        {
+            add(value);
+            return;
+        }
+        onAppending();
+        ((AbstractFloatColumn<?>) column).addFloat(value);
+        onAppended();
+        modCount += 1;
+    }
+
+
+    /**
+     * Appends a primitive value, without boxing it if the series already stores doubles
+     * @param value value to append
+     */
+    public void addDouble(double value)
+    {
+        if (!(column instanceof DoubleColumn))
+        {
+            add(value);
+            return;
+        }
+        onAppending();
+        ((DoubleColumn) column).addDouble(value);
+        onAppended();
+        modCount += 1;
+    }
+
+
+    /**
+     * Appends a primitive value, without boxing it if the series already stores longs
+     * @param value value to append
+     */
+    public void addLong(long value)
+    {
+        if (!(column instanceof LongColumn))
+        {
+            add(value);
+            return;
+        }
+        onAppending();
+        ((LongColumn) column).addLong(value);
+        onAppended();
+        modCount += 1;
+    }
+
+
+    /**
+     * Appends a primitive value, without boxing it if the series already stores ints
+     * @param value value to append
+     */
+    public void addInt(int value)
+    {
+        if (!(column instanceof IntColumn))
+        {
+            add(value);
+            return;
+        }
+        onAppending();
+        ((IntColumn) column).addInt(value);
+        onAppended();
+        modCount += 1;
+    }
+
+
+    /**
+     * Appends blank values
+     * @param count number of blank values to append
+     */
+    public void appendBlanks(int count)
+    {
+        if (count <= 0)
+            return;
+        ensureWritable();
+        column.addBlanks(count);
+        statisticsValid = false;
+        modCount += 1;
+    }
+
+
+    /**
+     * Appends all values of another series, widening the type of this series once if necessary.
+     * Values of series of the same type are copied in bulk
+     * @param other the series whose values will be appended
+     */
+    public void append(Series other)
+    {
+        Column source = (other == this)? column.snapshot() : other.column;
+        ColumnType type = Columns.widen(column.getType(), source.getType());
+        if (type != column.getType())
+            column = Columns.convert(column, type);
+        else
+            ensureWritable();
+        column.addAll(source, 0, source.size());
+        statisticsValid = false;
+        modCount += 1;
+    }
+
+
+    /**
+     * Pre-allocates storage for the given number of values. See Column.ensureCapacity()
+     * @param size the expected number of values
+     */
+    public void ensureCapacity(int size)
+    {
+        column.ensureCapacity(size);
+    }
+
+
+    @Override
+    public Object set(int index, Object value)
+    {
+        Object previous = column.get(index);
+        column = Columns.promote(column, value);
+        column.set(index, value);
+        statisticsValid = false;
+        return previous;
+    }
+
+
+    @Override
+    public Object remove(int index)
+    {
+        Object previous = column.get(index);
+        if (index == 0 && statistics != null && statisticsValid)
+            statistics.evict(column.getDouble(0));
+        else
+            statisticsValid = false;
+        ensureWritable();
+        column.remove(index);
+        modCount += 1;
+        return previous;
+    }
+
+
+    /**
+     * Removes the first values. See Column.removeHead()
+     * @param count number of values to remove
+     */
+    public void removeHead(int count)
+    {
+        if (count <= 0)
+            return;
+        if (statistics != null && statisticsValid)
+            for (int i = 0; i < count; i++)
+                statistics.evict(column.getDouble(i));
+        ensureWritable();
+        column.removeHead(count);
+        modCount += 1;
+    }
+
+
+    /**
+     * Keeps one value every factor values, starting from the first one
+     * @param factor the decimation factor. Factors lower than 2 have no effects
+     */
+    public void decimate(int factor)
+    {
+        if (factor <= 1 || column.size() == 0)
+            return;
+        Column decimated = Columns.newColumn(column.getType());
+        decimated.setCapacity(column.getCapacity());
+        decimated.ensureCapacity((column.size() + factor - 1) / factor);
+        for (int i = 0; i < column.size(); i += factor)
+            decimated.addFrom(column, i);
+        column = decimated;
+        statisticsValid = false;
+        modCount += 1;
+    }
+
+
+    @Override
+    public void clear()
+    {
+        Column empty = new EmptyColumn();
+        empty.setCapacity(column.getCapacity());
+        column = empty;
+        if (statistics != null)
+            statistics.clear();
+        statisticsValid = true;
+        modCount += 1;
+    }
+
+
+    /**
+     * Copies the column if it is a read-only view of another column (see SliceColumn)
+     */
+    private void ensureWritable()
+    {
+        if (column instanceof SliceColumn)
+            column = column.copy();
+    }
+
+
+    /**
+     * Updates the running statistics before a value is appended, evicting the first value of full
+     * bounded series
+     */
+    protected void onAppending()
+    {
+        if (statistics != null && statisticsValid && column.isBounded() && column.size() == column.getCapacity())
+            statistics.evict(column.getDouble(0));
+    }
+
+
+    /**
+     * Updates the running statistics after a value is appended
+     */
+    protected void onAppended()
+    {
+        if (statistics != null && statisticsValid)
+            statistics.push(column.getDouble(column.size() - 1));
+    }
+
+
+    /**
+     * Sets whether the series keeps running statistics of its values. Running statistics are updated
+     * in constant time as values are appended or evicted from the start of the series, other
+     * modifications cause them to be recomputed when next requested
+     * @param track whether to keep running statistics
+     */
+    public void setTrackStatistics(boolean track)
+    {
+        if (track == (statistics != null))
+            return;
+        statistics = (track)? new RunningStatistics() : null;
+        statisticsValid = false;
+    }
+
+
+    /**
+     * Returns the running statistics of the series' values
+     * @return the running statistics, or null if the series doesn't keep them
+     */
+    public RunningStatistics getRunningStatistics()
+    {
+        if (statistics == null)
+            return null;
+        if (!statisticsValid)
+        {
+            statistics.clear();
+            for (int i = 0; i < column.size(); i++)
+                statistics.push(column.getDouble(i));
+            statisticsValid = true;
+        }
+        return statistics;
+    }
+
+
+    /**
+     * Sets the maximum number of values of the series. Once reached, adding a value evicts the
+     * first one in constant time
+     * @param capacity the maximum number of values, or a non-positive number for unbounded series
+     */
+    public void setCapacity(int capacity)
+    {
+        ensureWritable();
+        column.setCapacity(capacity);
+        statisticsValid = false;
+        modCount += 1;
+    }
+
+
+    /**
+     * Returns the maximum number of values of the series
+     * @return the maximum number of values, or 0 if the series is unbounded
+     */
+    public int getCapacity()
+    {
+        return column.getCapacity();
+    }
+
+
+    /**
+     * Returns the value at the given index as a double, without boxing for numeric series.
+     * Strings are parsed once per distinct value
+     * @param index index of the value
+     * @return the value as a double, or NaN if the value is blank or not numeric
+     */
+    public double getDouble(int index)
+    {
+        return column.getDouble(index);
+    }
+
+
+    /**
+     * Returns the value at the given index as a long, without boxing for integer series
+     * @param index index of the value
+     * @return the value as a long. Blank and non numeric values are 0
+     */
+    public long getLong(int index)
+    {
+        return column.getLong(index);
+    }
+
+
+    /**
+     * Copies the values into a new array
+     * @return array with the series' values. Blank and non numeric values are NaN
+     */
+    public double[] toDoubleArray()
+    {
+        double[] result = new double[size()];
+        if (column instanceof DoubleColumn)
+        {
+            int[] position = {0};
+            ((DoubleColumn) column).forEachSegment(0, result.length, (chunk, offset, length) -> {
+                System.arraycopy(chunk, offset, result, position[0], length);
+                position[0] += length;
+            });
+        }
+        else
+            for (int i = 0; i < result.length; i++)
+                result[i] = column.getDouble(i);
+        return result;
+    }
+
+
+    /**
+     * Copies the values into a new array
+     * @return array with the series' values. Blank and non numeric values are NaN
+     */
+    public float[] toFloatArray()
+    {
+        float[] result = new float[size()];
+        if (column instanceof AbstractFloatColumn)
+            ((AbstractFloatColumn<?>) column).exportTo(0, result.length, FloatBuffer.wrap(result));
+        else
+            for (int i = 0; i < result.length; i++)
+                result[i] = (float) column.getDouble(i);
+        return result;
+    }
+
+
+    /**
+     * Replaces each numeric value with the result of the operator. Results are stored as doubles,
+     * blank and non numeric values are left untouched
+     * @param operator operator to apply
+     */
+    public void applyDouble(DoubleUnaryOperator operator)
+    {
+        if (column.getType().isNumeric())
+        {
+            column = mapColumn(operator);
+            statisticsValid = false;
+            modCount += 1;
+            return;
+        }
+        for (int i = 0; i < column.size(); i++)
+        {
+            double value = column.getDouble(i);
+            if (!Double.isNaN(value))
+                set(i, operator.applyAsDouble(value));
+        }
+    }
+
+
+    /**
+     * Returns a new series with each numeric value replaced by the result of the operator, in a
+     * single pass over numeric series. Results are stored as doubles, blank and non numeric values
+     * are copied untouched
+     * @param operator operator to apply
+     * @return the mapped series
+     */
+    public Series mapDouble(DoubleUnaryOperator operator)
+    {
+        Series result;
+        if (column.getType().isNumeric())
+            result = new Series(mapColumn(operator));
+        else
+        {
+            result = new Series(column.copy());
+            result.applyDouble(operator);
+        }
+        result.setTrackStatistics(statistics != null);
+        return result;
+    }
+
+
+    private DoubleColumn mapColumn(DoubleUnaryOperator operator)
+    {
+        DoubleColumn result = new DoubleColumn();
+        result.setCapacity(column.getCapacity());
+        for (int i = 0; i < column.size(); i++)
+            if (column.isBlank(i))
+                result.addBlank();
+            else
+                result.addDouble(operator.applyAsDouble(column.getDouble(i)));
+        return result;
+    }
+
 
     public double mean()
     {
+        RunningStatistics running = getRunningStatistics();
+        if (running != null && running.getCount() == size())
+            return (size() == 0)? 0 : running.getMean();
         double sum = 0;
         int n = 0;
-        for (Object item : this)
+        for (int i = 0; i < size(); i++)
         {
-            Double value = Doubles.tryParse(item.toString());
-            if (value != null ) {
+            double value = getDouble(i);
+            if (!Double.isNaN(value))
+            {
                 sum += value;
                 n += 1;
             }
@@ -27,16 +508,20 @@ public class Series extends ArrayList<Object> {
         return n == 0 ? 0 : sum / this.size();
     }
 
-    public double variance() {
+    public double variance()
+    {
+        RunningStatistics running = getRunningStatistics();
+        if (running != null && running.getCount() == size())
+            return (size() == 0)? 0 : running.getM2() / (this.size() + 1e-6);
         double sum = 0;
         double mean = this.mean();
         int n = 0;
-        for (Object item: this)
+        for (int i = 0; i < size(); i++)
         {
-            Double value = Doubles.tryParse(item.toString());
-            if (value != null)
+            double value = getDouble(i);
+            if (!Double.isNaN(value))
             {
-                sum += Math.pow(value - mean, 2);
+                sum += (value - mean) * (value - mean);
                 n += 1;
             }
         }
@@ -53,29 +538,42 @@ public class Series extends ArrayList<Object> {
         return Math.sqrt(variance());
     }
 
+    /**
+     *
+     * @return minimum numeric value of this series, or NaN if there are no numeric values
+     */
     public double min()
     {
-        double max = Double.MAX_VALUE;
-        for (Object item: this)
+        RunningStatistics running = getRunningStatistics();
+        if (running != null)
+            return running.getMin();
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size(); i++)
         {
-            Double value = Doubles.tryParse(item.toString());
-            if (value != null && value < max)
-               max = value;
+            double value = getDouble(i);
+            if (value < min)
+               min = value;
         }
-        return (max == Double.MAX_VALUE)? null : max;
+        return (min == Double.POSITIVE_INFINITY)? Double.NaN : min;
     }
 
-
+    /**
+     *
+     * @return maximum numeric value of this series, or NaN if there are no numeric values
+     */
     public double max()
     {
-        double min = Double.MIN_VALUE;
-        for (Object item: this)
+        RunningStatistics running = getRunningStatistics();
+        if (running != null)
+            return running.getMax();
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size(); i++)
         {
-            Double value = Doubles.tryParse(item.toString());
-            if (value != null && value > min)
-                min = value;
+            double value = getDouble(i);
+            if (value > max)
+                max = value;
         }
-        return (min == Double.MIN_VALUE)? null : min;
+        return (max == Double.NEGATIVE_INFINITY)? Double.NaN : max;
     }
 
 
@@ -83,8 +581,8 @@ public class Series extends ArrayList<Object> {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Object item : this) {
-            sb.append(String.format("%d\t%s\n", this.indexOf(item), item.toString()));
+        for (int i = 0; i < size(); i++) {
+            sb.append(String.format("%d\t%s\n", i, get(i)));
         }
         return new String(sb);
     }
@@ -93,9 +591,30 @@ public class Series extends ArrayList<Object> {
     @Override
     public Series clone()
     {
-        Series clone = new Series();
-        clone.addAll(this);
-        return clone;
+        return copyWith(column.snapshot());
+    }
+
+
+    /**
+     * Returns a copy of this series sharing its storage until either series is modified.
+     * Takes time proportional to the number of chunks of the column rather than to its size
+     * @return a copy of this series
+     */
+    public Series snapshot()
+    {
+        return copyWith(column.snapshot());
+    }
+
+
+    private Series copyWith(Column copy)
+    {
+        Series series = new Series(copy);
+        if (statistics != null)
+        {
+            series.statistics = statistics.copy();
+            series.statisticsValid = statisticsValid;
+        }
+        return series;
     }
 
 
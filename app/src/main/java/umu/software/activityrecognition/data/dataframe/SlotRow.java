@@ -0,0 +1,274 @@
+package umu.software.activityrecognition.data.dataframe;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+
+
+/**
+ * Row of a fixed Schema, storing its values in a reusable array of primitive slots indexed by
+ * column index. Slots that are not set are appended as blank cells
+ */
+public final class SlotRow
+{
+    private final Schema schema;
+    private final long[] bits;
+    private final Object[] objects;
+    private final ColumnType[] types;
+    private int count = 0;
+
+
+    SlotRow(Schema schema)
+    {
+        this.schema = schema;
+        this.bits = new long[schema.size()];
+        this.objects = new Object[schema.size()];
+        this.types = new ColumnType[schema.size()];
+    }
+
+
+    public Schema getSchema()
+    {
+        return schema;
+    }
+
+
+    /**
+     * Returns the number of slots that are set
+     * @return the number of slots that are set
+     */
+    public int count()
+    {
+        return count;
+    }
+
+
+    /**
+     * Returns whether a slot is set
+     * @param index index of the column
+     * @return whether the slot is set
+     */
+    public boolean isSet(int index)
+    {
+        return types[index] != null;
+    }
+
+
+    /**
+     * Unsets all slots, so that the row can be reused
+     */
+    public void clear()
+    {
+        Arrays.fill(types, null);
+        Arrays.fill(objects, null);
+        count = 0;
+    }
+
+
+    private void mark(int index, ColumnType type)
+    {
+        if (types[index] == null)
+            count += 1;
+        types[index] = type;
+    }
+
+
+    public void setFloat(int index, float value)
+    {
+        bits[index] = Float.floatToRawIntBits(value);
+        mark(index, ColumnType.FLOAT);
+    }
+
+
+    public void setDouble(int index, double value)
+    {
+        bits[index] = Double.doubleToRawLongBits(value);
+        mark(index, ColumnType.DOUBLE);
+    }
+
+
+    public void setLong(int index, long value)
+    {
+        bits[index] = value;
+        mark(index, ColumnType.LONG);
+    }
+
+
+    public void setInt(int index, int value)
+    {
+        bits[index] = value;
+        mark(index, ColumnType.INT);
+    }
+
+
+    /**
+     * Sets a slot to a boxed value, unboxing numeric values
+     * @param index index of the column
+     * @param value the value to set. Blank values unset the slot
+     */
+    public void setObject(int index, Object value)
+    {
+        switch (Columns.typeOf(value))
+        {
+            case EMPTY:
+                if (types[index] != null)
+                    count -= 1;
+                types[index] = null;
+                objects[index] = null;
+                break;
+            case FLOAT:
+                setFloat(index, (Float) value);
+                break;
+            case DOUBLE:
+                setDouble(index, (Double) value);
+                break;
+            case LONG:
+                setLong(index, (Long) value);
+                break;
+            case INT:
+                setInt(index, ((Number) value).intValue());
+                break;
+            default:
+                objects[index] = value;
+                mark(index, ColumnType.OBJECT);
+        }
+    }
+
+
+    /**
+     * Sets the slot of a column by name
+     * @param column name of the column
+     * @param value the value to set
+     * @return false if the column is not part of the schema, in which case the value is dropped
+     */
+    public boolean put(String column, Object value)
+    {
+        int index = schema.indexOf(column);
+        if (index < 0)
+            return false;
+        setObject(index, value);
+        return true;
+    }
+
+
+    /**
+     * Returns the boxed value of a slot
+     * @param index index of the column
+     * @return the value of the slot, or a blank value if the slot is not set
+     */
+    public Object get(int index)
+    {
+        if (types[index] == null)
+            return Column.BLANK;
+        switch (types[index])
+        {
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits[index]);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits[index]);
+            case LONG:
+                return bits[index];
+            case INT:
+                return (int) bits[index];
+            default:
+                return objects[index];
+        }
+    }
+
+
+    /**
+     * Returns the value of a slot as a double, without boxing primitive values
+     * @param index index of the column
+     * @return the value of the slot, or NaN if the slot is not set or not numeric
+     */
+    public double getDouble(int index)
+    {
+        if (types[index] == null)
+            return Double.NaN;
+        switch (types[index])
+        {
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits[index]);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits[index]);
+            case LONG:
+                return bits[index];
+            case INT:
+                return (int) bits[index];
+            default:
+                return Columns.toDouble(objects[index]);
+        }
+    }
+
+
+    /**
+     * Returns the value of a slot as a long, without boxing primitive values
+     * @param index index of the column
+     * @param fallback value returned if the slot is not set or not an integer
+     * @return the value of the slot
+     */
+    public long getLong(int index, long fallback)
+    {
+        if (types[index] == ColumnType.LONG || types[index] == ColumnType.INT)
+            return bits[index];
+        return fallback;
+    }
+
+
+    /**
+     * Appends the value of a slot to a series, without boxing primitive values
+     * @param index index of the column
+     * @param series the series to append to
+     */
+    void appendTo(int index, Series series)
+    {
+        if (types[index] == null)
+        {
+            series.add(Column.BLANK);
+            return;
+        }
+        switch (types[index])
+        {
+            case FLOAT:
+                series.addFloat(Float.intBitsToFloat((int) bits[index]));
+                break;
+            case DOUBLE:
+                series.addDouble(Double.longBitsToDouble(bits[index]));
+                break;
+            case LONG:
+                series.addLong(bits[index]);
+                break;
+            case INT:
+                series.addInt((int) bits[index]);
+                break;
+            default:
+                series.add(objects[index]);
+        }
+    }
+
+
+    /**
+     * Copies the set slots into a map-based row
+     * @param row the row to fill
+     */
+    public void copyTo(DataFrame.Row row)
+    {
+        for (int i = 0; i < bits.length; i++)
+            if (types[i] != null)
+                row.put(schema.getName(i), get(i));
+    }
+
+
+    /**
+     * Sets the slots of the columns contained in a map-based row. Columns outside of the schema are dropped
+     * @param row the row to copy
+     */
+    public void copyFrom(DataFrame.Row row)
+    {
+        for (Map.Entry<String, Object> e : row.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+}
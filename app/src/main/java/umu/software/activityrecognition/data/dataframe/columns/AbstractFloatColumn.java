@@ -0,0 +1,193 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import java.nio.FloatBuffer;
+
+
+/**
+ * Column of primitive float values, independent of the storage of its chunks
+ * (see FloatColumn and DirectFloatColumn)
+ * @param <A> type of the chunks
+ */
+public abstract class AbstractFloatColumn<A> extends ChunkedColumn<A>
+{
+
+    /**
+     * Reads a value from a chunk
+     * @param chunk the chunk to read from
+     * @param offset offset of the cell inside the chunk
+     * @return the value of the cell
+     */
+    protected abstract float read(A chunk, int offset);
+
+
+    /**
+     * Writes a value into a chunk
+     * @param chunk the chunk to write into
+     * @param offset offset of the cell inside the chunk
+     * @param value the value to write
+     */
+    protected abstract void write(A chunk, int offset, float value);
+
+
+    /**
+     * Copies a segment of a chunk into a buffer, starting at the buffer's position
+     * @param chunk the chunk to copy from
+     * @param offset offset of the first cell of the segment
+     * @param length number of cells of the segment
+     * @param buffer the buffer to write into
+     */
+    protected abstract void put(A chunk, int offset, int length, FloatBuffer buffer);
+
+
+    @Override
+    protected int cellBytes()
+    {
+        return 4;
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.FLOAT;
+    }
+
+
+    /**
+     * Returns the primitive value of a cell. Blank cells return Float.NaN
+     * @param index index of the cell
+     * @return the value of the cell
+     */
+    public float getFloat(int index)
+    {
+        checkIndex(index);
+        return read(chunk(index), offset(index));
+    }
+
+
+    /**
+     * Appends a primitive value
+     * @param value value to append
+     */
+    public void addFloat(float value)
+    {
+        int index = appendIndex();
+        write(writableChunk(index), offset(index), value);
+    }
+
+
+    /**
+     * Sets the primitive value of a cell
+     * @param index index of the cell
+     * @param value new value of the cell
+     */
+    public void setFloat(int index, float value)
+    {
+        checkIndex(index);
+        write(writableChunk(index), offset(index), value);
+        setBlank(index, false);
+    }
+
+
+    /**
+     * Copies a range of cells into a buffer with bulk puts, starting at the buffer's position.
+     * Blank cells are written as NaN
+     * @param from index of the first cell (inclusive)
+     * @param to index of the last cell (exclusive)
+     * @param buffer the buffer to write into
+     */
+    public void exportTo(int from, int to, FloatBuffer buffer)
+    {
+        if (from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range: [%s, %s), Size: %s", from, to, size));
+        int i = from;
+        while (i < to)
+        {
+            int length = Math.min(to - i, segmentLength(i));
+            put(chunk(i), offset(i), length, buffer);
+            i += length;
+        }
+    }
+
+
+    /**
+     * Appends cells of float columns of any storage without boxing them
+     */
+    @Override
+    public void addAll(Column source, int from, int to)
+    {
+        if (source.getClass() == getClass() || !(source instanceof AbstractFloatColumn))
+        {
+            super.addAll(source, from, to);
+            return;
+        }
+        AbstractFloatColumn<?> other = (AbstractFloatColumn<?>) source;
+        ensureCapacity(size + to - from);
+        for (int i = from; i < to; i++)
+            addFrom(other, i);
+    }
+
+
+    @Override
+    public void addFrom(Column source, int index)
+    {
+        if (source.getClass() == getClass() || !(source instanceof AbstractFloatColumn))
+        {
+            super.addFrom(source, index);
+            return;
+        }
+        float value = ((AbstractFloatColumn<?>) source).getFloat(index);
+        if (source.isBlank(index))
+            addBlank();
+        else
+            addFloat(value);
+    }
+
+
+    @Override
+    public Object get(int index)
+    {
+        float value = getFloat(index);
+        return isBlank(index)? BLANK : value;
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        return getFloat(index);
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return value instanceof Float || Columns.isBlank(value);
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        if (Columns.isBlank(value))
+            addBlank();
+        else
+            addFloat(((Number) value).floatValue());
+    }
+
+    @Override
+    public void addBlank()
+    {
+        int index = appendIndex();
+        write(writableChunk(index), offset(index), Float.NaN);
+        setBlank(index, true);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        if (Columns.isBlank(value))
+        {
+            setFloat(index, Float.NaN);
+            setBlank(index, true);
+        }
+        else
+            setFloat(index, ((Number) value).floatValue());
+    }
+}
@@ -0,0 +1,608 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+
+/**
+ * Column storing its cells in fixed-size primitive chunks. Appending never copies the
+ * previously stored cells, apart from the first chunk that grows up to CHUNK_SIZE.
+ * Bounded columns (see setCapacity()) instead use a single circular chunk, indexed from a head
+ * position, so that evicting the first cell takes constant time.
+ * Snapshots (see snapshot()) share chunks with the column they are taken from: both copy a shared
+ * chunk before writing into it.
+ * @param <A> type of the chunks, eg. float[]
+ */
+public abstract class ChunkedColumn<A> extends Column
+{
+    protected static final int CHUNK_BITS = 10;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int FIRST_CHUNK_SIZE = 16;
+
+
+    /**
+     * Consumer of contiguous segments of a column
+     * @param <A> type of the chunks
+     */
+    public interface SegmentConsumer<A>
+    {
+        /**
+         * Consumes a segment
+         * @param chunk chunk containing the segment
+         * @param offset offset of the first cell of the segment inside the chunk
+         * @param length number of cells of the segment
+         */
+        void accept(A chunk, int offset, int length);
+    }
+
+
+    protected final ArrayList<A> chunks = new ArrayList<>();
+    protected int size = 0;
+    private int head = 0;
+    private int firstChunkLength = 0;
+    private BitSet blanks = null;
+    private BitSet sharedChunks = null;
+    private boolean sharedBlanks = false;
+
+
+    /**
+     * Allocates a new chunk
+     * @param length number of cells of the chunk
+     * @return the newly allocated chunk
+     */
+    protected abstract A newChunk(int length);
+
+
+    /**
+     * Returns the number of bytes used by each cell of a chunk
+     * @return the number of bytes used by each cell
+     */
+    protected int cellBytes()
+    {
+        return 8;
+    }
+
+
+    /**
+     * Copies cells between chunks
+     */
+    protected void move(A src, int srcPos, A dst, int dstPos, int length)
+    {
+        System.arraycopy(src, srcPos, dst, dstPos, length);
+    }
+
+
+    /**
+     * Releases a chunk that is no longer used by the column, eg. to reuse its storage. Chunks
+     * shared with snapshots are never released
+     * @param chunk the released chunk
+     */
+    protected void releaseChunk(A chunk)
+    {
+
+    }
+
+
+    /**
+     * Releases a chunk of the column that is about to be dropped, unless it is shared
+     * @param chunkNum index of the chunk
+     */
+    private void releaseUnshared(int chunkNum)
+    {
+        if (sharedChunks == null || !sharedChunks.get(chunkNum))
+            releaseChunk(chunks.get(chunkNum));
+    }
+
+
+    /**
+     * Releases the content of a cell that is no longer part of the column
+     * @param chunk chunk containing the cell
+     * @param offset offset of the cell inside the chunk
+     */
+    protected void releaseCell(A chunk, int offset)
+    {
+
+    }
+
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Returns the chunk containing the given cell
+     * @param index index of the cell
+     * @return the chunk containing the cell
+     */
+    protected final A chunk(int index)
+    {
+        return chunks.get(isBounded()? 0 : index >>> CHUNK_BITS);
+    }
+
+
+    /**
+     * Returns the chunk containing the given cell, to write into it. Chunks shared with snapshots
+     * are copied first
+     * @param index index of the cell
+     * @return the chunk containing the cell
+     */
+    protected final A writableChunk(int index)
+    {
+        return writableChunkAt(isBounded()? 0 : index >>> CHUNK_BITS);
+    }
+
+
+    private A writableChunkAt(int chunkNum)
+    {
+        A chunk = chunks.get(chunkNum);
+        if (sharedChunks == null || !sharedChunks.get(chunkNum))
+            return chunk;
+        int length = isBounded()? capacity : (chunkNum == 0)? firstChunkLength : CHUNK_SIZE;
+        A copy = newChunk(length);
+        move(chunk, 0, copy, 0, length);
+        chunks.set(chunkNum, copy);
+        sharedChunks.clear(chunkNum);
+        return copy;
+    }
+
+
+    private BitSet writableBlanks()
+    {
+        if (sharedBlanks)
+        {
+            blanks = (BitSet) blanks.clone();
+            sharedBlanks = false;
+        }
+        return blanks;
+    }
+
+
+    /**
+     * Returns the offset of the given cell inside its chunk
+     * @param index index of the cell
+     * @return the offset of the cell inside its chunk
+     */
+    protected final int offset(int index)
+    {
+        if (!isBounded())
+            return index & CHUNK_MASK;
+        int position = head + index;
+        return (position >= capacity)? position - capacity : position;
+    }
+
+
+    /**
+     * Returns the number of cells stored contiguously in the same chunk from the given cell on,
+     * ie. up to the end of the chunk (not bounded by the size of the column)
+     * @param index index of the cell
+     * @return the number of contiguous cells from the given cell
+     */
+    protected final int segmentLength(int index)
+    {
+        return (isBounded()? capacity : CHUNK_SIZE) - offset(index);
+    }
+
+
+    /**
+     * Returns the position of a cell in the column storage
+     * @param index index of the cell
+     * @return the position of a cell in the column storage
+     */
+    private int position(int index)
+    {
+        return isBounded()? offset(index) : index;
+    }
+
+
+    /**
+     * Reserves a new cell at the end of the column. Evicts the first cell of full bounded columns
+     * @return index of the new cell
+     */
+    protected final int appendIndex()
+    {
+        if (isBounded())
+        {
+            if (chunks.isEmpty())
+                chunks.add(newChunk(capacity));
+            if (size == capacity)
+                removeFirst();
+            size += 1;
+            return size - 1;
+        }
+
+        int index = size;
+        int chunkNum = index >>> CHUNK_BITS;
+        if (chunkNum == chunks.size())
+        {
+            int length = (chunkNum == 0)? FIRST_CHUNK_SIZE : CHUNK_SIZE;
+            chunks.add(newChunk(length));
+            if (chunkNum == 0)
+                firstChunkLength = length;
+        }
+        else if (chunkNum == 0 && index == firstChunkLength)
+        {
+            int length = Math.min(2 * firstChunkLength, CHUNK_SIZE);
+            A grown = newChunk(length);
+            move(chunks.get(0), 0, grown, 0, size);
+            releaseUnshared(0);
+            chunks.set(0, grown);
+            if (sharedChunks != null)
+                sharedChunks.clear(0);
+            firstChunkLength = length;
+        }
+        size += 1;
+        return index;
+    }
+
+
+    @Override
+    public void ensureCapacity(int cells)
+    {
+        if (isBounded() || cells <= 0)
+            return;
+        int firstLength = Math.min(Math.max(cells, FIRST_CHUNK_SIZE), CHUNK_SIZE);
+        if (chunks.isEmpty())
+        {
+            chunks.add(newChunk(firstLength));
+            firstChunkLength = firstLength;
+        }
+        else if (firstChunkLength < firstLength)
+        {
+            A grown = newChunk(firstLength);
+            move(chunks.get(0), 0, grown, 0, Math.min(size, firstChunkLength));
+            releaseUnshared(0);
+            chunks.set(0, grown);
+            firstChunkLength = firstLength;
+            if (sharedChunks != null)
+                sharedChunks.clear(0);
+        }
+        chunks.ensureCapacity((cells + CHUNK_MASK) >>> CHUNK_BITS);
+    }
+
+
+    @Override
+    public void addAll(Column source, int from, int to)
+    {
+        if (source.getClass() != getClass())
+        {
+            super.addAll(source, from, to);
+            return;
+        }
+        if (from < 0 || to > source.size() || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range: [%s, %s), Size: %s", from, to, source.size()));
+
+        @SuppressWarnings("unchecked")
+        ChunkedColumn<A> other = (ChunkedColumn<A>) source;
+        ensureCapacity(size + to - from);
+        int i = from;
+        while (i < to)
+        {
+            int index = appendIndex();
+            int length = 1;
+            if (!isBounded())
+            {
+                int available = (index < CHUNK_SIZE)? firstChunkLength - index : segmentLength(index);
+                length = Math.min(Math.min(to - i, other.segmentLength(i)), available);
+                size += length - 1;
+            }
+            move(other.chunk(i), other.offset(i), writableChunk(index), offset(index), length);
+            if (other.blanks != null)
+                for (int k = 0; k < length; k++)
+                    if (other.isBlank(i + k))
+                        setBlank(index + k, true);
+            i += length;
+        }
+    }
+
+
+    @Override
+    public void addFrom(Column source, int index)
+    {
+        if (source.getClass() != getClass())
+        {
+            super.addFrom(source, index);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        ChunkedColumn<A> other = (ChunkedColumn<A>) source;
+        boolean blank = other.isBlank(index);
+        int target = appendIndex();
+        move(other.chunk(index), other.offset(index), writableChunk(target), offset(target), 1);
+        if (blank)
+            setBlank(target, true);
+    }
+
+
+    /**
+     * Marks a cell as blank or not
+     * @param index index of the cell
+     * @param blank whether the cell is blank
+     */
+    protected final void setBlank(int index, boolean blank)
+    {
+        setBlankAt(position(index), blank);
+    }
+
+
+    private void setBlankAt(int position, boolean blank)
+    {
+        if (blank)
+        {
+            if (blanks == null)
+                blanks = new BitSet();
+            writableBlanks().set(position);
+        }
+        else if (blanks != null && blanks.get(position))
+            writableBlanks().clear(position);
+    }
+
+
+    @Override
+    public boolean isBlank(int index)
+    {
+        checkIndex(index);
+        return blanks != null && blanks.get(position(index));
+    }
+
+
+    /**
+     * Removes the first cell. Takes constant time for bounded columns
+     */
+    private void removeFirst()
+    {
+        releaseCell(writableChunkAt(0), head);
+        setBlankAt(head, false);
+        head = (head + 1 == capacity)? 0 : head + 1;
+        size -= 1;
+    }
+
+
+    @Override
+    public void remove(int index)
+    {
+        checkIndex(index);
+        if (isBounded())
+        {
+            if (index == 0)
+            {
+                removeFirst();
+                return;
+            }
+            A chunk = writableChunkAt(0);
+            for (int i = index; i < size - 1; i++)
+            {
+                move(chunk, offset(i + 1), chunk, offset(i), 1);
+                setBlankAt(offset(i), blanks != null && blanks.get(offset(i + 1)));
+            }
+            releaseCell(chunk, offset(size - 1));
+            setBlankAt(offset(size - 1), false);
+            size -= 1;
+            return;
+        }
+
+        int last = size - 1;
+        int i = index;
+        while (i < last)
+        {
+            int chunkNum = i >>> CHUNK_BITS;
+            int chunkEnd = Math.min(last - 1, ((chunkNum + 1) << CHUNK_BITS) - 1);
+            A chunk = writableChunkAt(chunkNum);
+            int inner = Math.min(chunkEnd, ((chunkNum + 1) << CHUNK_BITS) - 2);
+            if (inner >= i)
+                move(chunk, offset(i) + 1, chunk, offset(i), inner - i + 1);
+            if (chunkEnd > inner)
+                move(chunks.get(chunkNum + 1), 0, chunk, CHUNK_MASK, 1);
+            i = chunkEnd + 1;
+        }
+        releaseCell(writableChunk(last), offset(last));
+
+        if (blanks != null && blanks.nextSetBit(index) >= 0)
+        {
+            BitSet tail = blanks.get(index + 1, size);
+            writableBlanks().clear(index, size);
+            for (int b = tail.nextSetBit(0); b >= 0; b = tail.nextSetBit(b + 1))
+                blanks.set(index + b);
+        }
+
+        size -= 1;
+        while (chunks.size() > 1 && ((chunks.size() - 1) << CHUNK_BITS) >= size)
+        {
+            releaseUnshared(chunks.size() - 1);
+            chunks.remove(chunks.size() - 1);
+            if (sharedChunks != null)
+                sharedChunks.clear(chunks.size());
+        }
+    }
+
+
+    /**
+     * Removes the first cells. Takes time proportional to the number of removed chunks when
+     * count is a multiple of the chunk size, to the number of remaining cells otherwise, and
+     * constant time per cell for bounded columns
+     * @param count number of cells to remove
+     */
+    @Override
+    public void removeHead(int count)
+    {
+        if (count <= 0)
+            return;
+        if (count > size)
+            throw new IndexOutOfBoundsException(String.format("Count: %s, Size: %s", count, size));
+        if (isBounded())
+        {
+            for (int i = 0; i < count; i++)
+                removeFirst();
+            return;
+        }
+        if ((count & CHUNK_MASK) != 0)
+        {
+            // copy the remaining cells in bulk rather than shifting them once per removed cell
+            Column remaining = snapshot();
+            clear();
+            addAll(remaining, count, remaining.size());
+            return;
+        }
+
+        int removedChunks = count >>> CHUNK_BITS;
+        for (int c = 0; c < removedChunks; c++)
+            releaseUnshared(c);
+        chunks.subList(0, removedChunks).clear();
+        if (sharedChunks != null)
+            sharedChunks = sharedChunks.get(removedChunks, Math.max(removedChunks, sharedChunks.length()));
+        if (blanks != null)
+        {
+            blanks = blanks.get(count, Math.max(count, blanks.length()));
+            sharedBlanks = false;
+        }
+        size -= count;
+        firstChunkLength = chunks.isEmpty()? 0 : CHUNK_SIZE;
+    }
+
+
+    @Override
+    public int sealedCells()
+    {
+        return isBounded()? 0 : size & ~CHUNK_MASK;
+    }
+
+
+    @Override
+    public long estimateBytes()
+    {
+        long cells = 0;
+        if (!chunks.isEmpty())
+            cells = isBounded()? capacity : firstChunkLength + (long) (chunks.size() - 1) * CHUNK_SIZE;
+        long blankBytes = (blanks == null)? 0 : blanks.size() / 8;
+        return cells * cellBytes() + blankBytes;
+    }
+
+
+    @Override
+    public void clear()
+    {
+        for (int c = 0; c < chunks.size(); c++)
+            releaseUnshared(c);
+        chunks.clear();
+        size = 0;
+        head = 0;
+        firstChunkLength = 0;
+        blanks = null;
+        sharedChunks = null;
+        sharedBlanks = false;
+    }
+
+
+    @Override
+    public void setCapacity(int capacity)
+    {
+        capacity = Math.max(0, capacity);
+        if (capacity == this.capacity)
+            return;
+
+        ArrayList<A> oldChunks = new ArrayList<>(chunks);
+        BitSet oldBlanks = blanks;
+        BitSet oldShared = sharedChunks;
+        int oldCapacity = this.capacity;
+        int oldHead = head;
+        int oldSize = size;
+
+        chunks.clear();
+        size = 0;
+        head = 0;
+        firstChunkLength = 0;
+        blanks = null;
+        sharedChunks = null;
+        sharedBlanks = false;
+        this.capacity = capacity;
+
+        int keep = (capacity > 0)? Math.min(oldSize, capacity) : oldSize;
+        for (int i = oldSize - keep; i < oldSize; i++)
+        {
+            int position = (oldCapacity > 0)? (oldHead + i) % oldCapacity : i;
+            A src = oldChunks.get((oldCapacity > 0)? 0 : position >>> CHUNK_BITS);
+            int index = appendIndex();
+            move(src, (oldCapacity > 0)? position : position & CHUNK_MASK, chunk(index), offset(index), 1);
+            if (oldBlanks != null && oldBlanks.get(position))
+                setBlank(index, true);
+        }
+        for (int c = 0; c < oldChunks.size(); c++)
+            if (oldShared == null || !oldShared.get(c))
+                releaseChunk(oldChunks.get(c));
+    }
+
+
+    /**
+     * Visits, in order, the contiguous segments of storage holding the given range of cells.
+     * Chunked columns yield a segment for each chunk, bounded columns at most two segments.
+     * The values of blank cells are left as they are stored, eg. NaN for floating point columns
+     * @param from index of the first cell (inclusive)
+     * @param to index of the last cell (exclusive)
+     * @param consumer consumer of the segments
+     */
+    public void forEachSegment(int from, int to, SegmentConsumer<A> consumer)
+    {
+        if (from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range: [%s, %s), Size: %s", from, to, size));
+        int i = from;
+        while (i < to)
+        {
+            int length = Math.min(to - i, segmentLength(i));
+            consumer.accept(chunk(i), offset(i), length);
+            i += length;
+        }
+    }
+
+
+    /**
+     * Copies all cells of this column into an empty column of the same type
+     * @param copy the target column
+     * @param <C> type of the target column
+     * @return the target column
+     */
+    protected <C extends ChunkedColumn<A>> C copyTo(C copy)
+    {
+        ChunkedColumn<A> target = copy;
+        for (int c = 0; c < chunks.size(); c++)
+        {
+            int length = isBounded()? capacity : (c == 0)? firstChunkLength : CHUNK_SIZE;
+            A chunk = newChunk(length);
+            move(chunks.get(c), 0, chunk, 0, length);
+            target.chunks.add(chunk);
+        }
+        target.capacity = capacity;
+        target.size = size;
+        target.head = head;
+        target.firstChunkLength = firstChunkLength;
+        target.blanks = (blanks == null)? null : (BitSet) blanks.clone();
+        return copy;
+    }
+
+
+    /**
+     * Makes an empty column of the same type share all cells of this column. Takes time
+     * proportional to the number of chunks, chunks are copied when either column writes into them
+     * @param snapshot the target column
+     * @param <C> type of the target column
+     * @return the target column
+     */
+    protected <C extends ChunkedColumn<A>> C snapshotTo(C snapshot)
+    {
+        ChunkedColumn<A> target = snapshot;
+        target.chunks.addAll(chunks);
+        if (sharedChunks == null)
+            sharedChunks = new BitSet();
+        sharedChunks.set(0, chunks.size());
+        target.sharedChunks = (BitSet) sharedChunks.clone();
+        target.capacity = capacity;
+        target.size = size;
+        target.head = head;
+        target.firstChunkLength = firstChunkLength;
+        target.blanks = blanks;
+        sharedBlanks = target.sharedBlanks = (blanks != null);
+        return snapshot;
+    }
+}
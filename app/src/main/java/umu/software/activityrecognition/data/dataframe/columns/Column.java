@@ -0,0 +1,229 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Typed storage for the cells of a single dataframe column.
+ * Blank cells (null or empty strings) are tracked separately from the values, all columns read
+ * them back as Column.BLANK and as NaN through getDouble(). Null is not kept apart from the empty
+ * string, so a null cell is read back and written to CSV as "" rather than "null"
+ */
+public abstract class Column
+{
+    /** Value returned for blank cells, null ones included */
+    public static final String BLANK = "";
+
+
+    protected int capacity = 0;
+
+
+    /**
+     * Returns the storage type of the column
+     * @return the storage type of the column
+     */
+    public abstract ColumnType getType();
+
+    /**
+     * Returns the number of cells
+     * @return the number of cells
+     */
+    public abstract int size();
+
+    /**
+     * Returns the (boxed) value of a cell
+     * @param index index of the cell
+     * @return the value of the cell
+     */
+    public abstract Object get(int index);
+
+    /**
+     * Returns the value of a cell as a double
+     * @param index index of the cell
+     * @return the value of the cell, or NaN if the cell is blank or not numeric
+     */
+    public abstract double getDouble(int index);
+
+    /**
+     * Returns the value of a cell as a long. Integer columns return their values exactly
+     * @param index index of the cell
+     * @return the value of the cell, truncated if not integer. Blank and non numeric cells are 0
+     */
+    public long getLong(int index)
+    {
+        return (long) getDouble(index);
+    }
+
+    /**
+     * Returns whether the given cell is blank
+     * @param index index of the cell
+     * @return whether the given cell is blank
+     */
+    public abstract boolean isBlank(int index);
+
+    /**
+     * Returns whether the value can be stored in this column without changing its type
+     * @param value value to test
+     * @return whether the value can be stored in this column
+     */
+    public abstract boolean accepts(Object value);
+
+    /**
+     * Appends a value. The value must be accepted by the column
+     * @param value value to append
+     */
+    public abstract void add(Object value);
+
+    /**
+     * Appends a blank cell
+     */
+    public abstract void addBlank();
+
+    /**
+     * Appends blank cells
+     * @param count number of blank cells to append
+     */
+    public void addBlanks(int count)
+    {
+        for (int i = 0; i < count; i++)
+            addBlank();
+    }
+
+
+    /**
+     * Appends a range of cells of another column. This column must accept all of their values
+     * @param source the column to copy the cells from
+     * @param from index of the first cell (inclusive)
+     * @param to index of the last cell (exclusive)
+     */
+    public void addAll(Column source, int from, int to)
+    {
+        ensureCapacity(size() + to - from);
+        for (int i = from; i < to; i++)
+            add(source.get(i));
+    }
+
+
+    /**
+     * Appends a copy of a cell of another column. This column must accept its value
+     * @param source the column to copy the cell from
+     * @param index index of the cell
+     */
+    public void addFrom(Column source, int index)
+    {
+        add(source.get(index));
+    }
+
+
+    /**
+     * Pre-allocates storage for the given number of cells, so that appending up to that number
+     * of cells doesn't reallocate. Has no effects on bounded columns, whose storage is fixed
+     * @param cells the expected number of cells
+     */
+    public void ensureCapacity(int cells)
+    {
+
+    }
+
+
+    /**
+     * Sets the value of a cell. The value must be accepted by the column
+     * @param index index of the cell
+     * @param value new value of the cell
+     */
+    public abstract void set(int index, Object value);
+
+    /**
+     * Removes a cell, shifting the following ones
+     * @param index index of the cell to remove
+     */
+    public abstract void remove(int index);
+
+    /**
+     * Removes the first cells, shifting the following ones
+     * @param count number of cells to remove
+     */
+    public void removeHead(int count)
+    {
+        for (int i = 0; i < count; i++)
+            remove(0);
+    }
+
+    /**
+     * Removes all cells
+     */
+    public abstract void clear();
+
+    /**
+     * Returns a copy of this column
+     * @return a copy of this column
+     */
+    public abstract Column copy();
+
+
+    /**
+     * Returns a copy of this column that may share storage with it. Shared storage is copied by
+     * either column before being modified, so that the two columns stay independent
+     * @return a copy of this column
+     */
+    public Column snapshot()
+    {
+        return copy();
+    }
+
+
+    /**
+     * Sets the maximum number of cells of the column. Once the capacity is reached, appending a
+     * cell evicts the first one in constant time. If the column holds more cells than the new
+     * capacity, the first ones are dropped.
+     * @param capacity the maximum number of cells, or a non-positive number for unbounded columns
+     */
+    public abstract void setCapacity(int capacity);
+
+
+    /**
+     * Returns the maximum number of cells of the column
+     * @return the maximum number of cells, or 0 if the column is unbounded
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    /**
+     * Returns whether the column has a maximum number of cells
+     * @return whether the column has a maximum number of cells
+     */
+    public boolean isBounded()
+    {
+        return capacity > 0;
+    }
+
+
+    /**
+     * Returns the number of first cells that won't be moved nor written by appending to the
+     * column, eg. those stored in full chunks. They can be removed with removeHead() in time
+     * independent of the number of cells
+     * @return the number of sealed cells
+     */
+    public int sealedCells()
+    {
+        return 0;
+    }
+
+
+    /**
+     * Returns an estimate of the memory allocated to store the cells of the column
+     * @return the estimated number of bytes
+     */
+    public long estimateBytes()
+    {
+        return 16L * size();
+    }
+
+
+    protected void checkIndex(int index)
+    {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException(String.format("Index: %s, Size: %s", index, size()));
+    }
+}
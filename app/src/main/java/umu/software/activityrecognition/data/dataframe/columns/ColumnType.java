@@ -0,0 +1,29 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Storage type of a column
+ */
+public enum ColumnType
+{
+    /** Column holding only blank cells. Its type is decided by the first non-blank value */
+    EMPTY,
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    /** Dictionary-encoded strings */
+    STRING,
+    /** Boxed objects. Used for values of mixed or non-primitive types */
+    OBJECT;
+
+
+    /**
+     * Returns whether the type is stored as primitive numbers
+     * @return whether the type is stored as primitive numbers
+     */
+    public boolean isNumeric()
+    {
+        return this == INT || this == LONG || this == FLOAT || this == DOUBLE;
+    }
+}
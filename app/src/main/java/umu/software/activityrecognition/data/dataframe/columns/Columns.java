@@ -0,0 +1,173 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import com.google.common.primitives.Doubles;
+
+
+/**
+ * Factory and utils for Column objects
+ */
+public class Columns
+{
+    private static volatile boolean directFloats = false;
+
+
+    private Columns() {}
+
+
+    /**
+     * Sets whether new float columns store their values off-heap (see DirectFloatColumn), eg. for
+     * high-rate sensors whose rows are handed to TFLite models. Existing columns are not affected
+     * @param direct whether new float columns are stored off-heap
+     */
+    public static void setDirectFloats(boolean direct)
+    {
+        directFloats = direct;
+    }
+
+
+    /**
+     * Returns whether new float columns store their values off-heap
+     * @return whether new float columns are stored off-heap
+     */
+    public static boolean isDirectFloats()
+    {
+        return directFloats;
+    }
+
+
+    /**
+     * Returns whether the value represents a blank cell, ie. it is null or an empty string. Both are
+     * stored the same way and read back as Column.BLANK
+     * @param value value to test
+     * @return whether the value represents a blank cell
+     */
+    public static boolean isBlank(Object value)
+    {
+        return value == null || (value instanceof String && ((String) value).isEmpty());
+    }
+
+
+    /**
+     * Returns whether the value is a boxed Integer, Short or Byte
+     * @param value value to test
+     * @return whether the value is a boxed Integer, Short or Byte
+     */
+    public static boolean isInteger(Object value)
+    {
+        return value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+
+    /**
+     * Converts a value to a double. Numbers are converted without parsing
+     * @param value value to convert
+     * @return the value as a double, or NaN if the value is blank or not numeric
+     */
+    public static double toDouble(Object value)
+    {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        if (isBlank(value))
+            return Double.NaN;
+        Double parsed = Doubles.tryParse(value.toString());
+        return (parsed == null)? Double.NaN : parsed;
+    }
+
+
+    /**
+     * Returns the column type best suited to store the given value
+     * @param value value to store
+     * @return the column type best suited to store the value
+     */
+    public static ColumnType typeOf(Object value)
+    {
+        if (isBlank(value))
+            return ColumnType.EMPTY;
+        if (value instanceof Float)
+            return ColumnType.FLOAT;
+        if (value instanceof Double)
+            return ColumnType.DOUBLE;
+        if (value instanceof Long)
+            return ColumnType.LONG;
+        if (isInteger(value))
+            return ColumnType.INT;
+        if (value instanceof String)
+            return ColumnType.STRING;
+        return ColumnType.OBJECT;
+    }
+
+
+    /**
+     * Returns the narrowest type that can store values of both given types. Mixed types, numeric
+     * ones included, fall back to OBJECT so that each value keeps its boxed type and its text
+     * (eg. a Float 0.1 is not written as 0.10000000149011612, nor an Integer 3 as 3.0)
+     * @param a first type
+     * @param b second type
+     * @return the narrowest type that can store values of both types
+     */
+    public static ColumnType widen(ColumnType a, ColumnType b)
+    {
+        if (a == b || b == ColumnType.EMPTY)
+            return a;
+        if (a == ColumnType.EMPTY)
+            return b;
+        return ColumnType.OBJECT;
+    }
+
+
+    /**
+     * Creates a new empty column
+     * @param type type of the column
+     * @return the newly created column
+     */
+    public static Column newColumn(ColumnType type)
+    {
+        switch (type)
+        {
+            case INT:
+                return new IntColumn();
+            case LONG:
+                return new LongColumn();
+            case FLOAT:
+                return directFloats? new DirectFloatColumn() : new FloatColumn();
+            case DOUBLE:
+                return new DoubleColumn();
+            case STRING:
+                return new StringColumn();
+            case OBJECT:
+                return new ObjectColumn();
+            default:
+                return new EmptyColumn();
+        }
+    }
+
+
+    /**
+     * Copies a column into a new column of the given type
+     * @param column column to convert
+     * @param type the new type. Must be able to store all values of the column
+     * @return the converted column
+     */
+    public static Column convert(Column column, ColumnType type)
+    {
+        Column converted = newColumn(type);
+        converted.setCapacity(column.getCapacity());
+        for (int i = 0; i < column.size(); i++)
+            converted.add(column.get(i));
+        return converted;
+    }
+
+
+    /**
+     * Returns a column able to store the given value, converting the column if necessary
+     * @param column the current column
+     * @param value the value to store
+     * @return the column itself if it accepts the value, otherwise a converted copy
+     */
+    public static Column promote(Column column, Object value)
+    {
+        if (column.accepts(value))
+            return column;
+        return convert(column, widen(column.getType(), typeOf(value)));
+    }
+}
@@ -0,0 +1,79 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+
+/**
+ * Pool of direct byte buffers in native byte order. Allocating direct buffers is expensive and
+ * their memory is only freed when they are garbage collected, so released buffers are kept for
+ * reuse up to a maximum number of bytes. Thread safe
+ */
+public class DirectBufferPool
+{
+    public static final long DEFAULT_MAX_POOLED_BYTES = 4L << 20;
+
+    private static final HashMap<Integer, ArrayDeque<ByteBuffer>> pooled = new HashMap<>();
+    private static long pooledBytes = 0;
+    private static long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+
+
+    private DirectBufferPool() {}
+
+
+    /**
+     * Sets the maximum number of bytes of the buffers kept for reuse
+     * @param bytes the maximum number of pooled bytes
+     */
+    public static synchronized void setMaxPooledBytes(long bytes)
+    {
+        maxPooledBytes = Math.max(0, bytes);
+        if (pooledBytes > maxPooledBytes)
+            clear();
+    }
+
+
+    /**
+     * Returns a direct buffer in native byte order, reusing a released one if possible.
+     * The content of reused buffers is not cleared
+     * @param capacity capacity of the buffer in bytes
+     * @return a direct buffer, with position 0 and limit equal to its capacity
+     */
+    public static synchronized ByteBuffer acquire(int capacity)
+    {
+        ArrayDeque<ByteBuffer> buffers = pooled.get(capacity);
+        if (buffers != null && !buffers.isEmpty())
+        {
+            pooledBytes -= capacity;
+            ByteBuffer buffer = buffers.pop();
+            buffer.clear();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used anymore by the caller
+     * @param buffer a buffer obtained from acquire()
+     */
+    public static synchronized void release(ByteBuffer buffer)
+    {
+        if (!buffer.isDirect() || pooledBytes + buffer.capacity() > maxPooledBytes)
+            return;
+        pooled.computeIfAbsent(buffer.capacity(), c -> new ArrayDeque<>()).push(buffer);
+        pooledBytes += buffer.capacity();
+    }
+
+
+    /**
+     * Drops all pooled buffers, leaving their memory to the garbage collector
+     */
+    public static synchronized void clear()
+    {
+        pooled.clear();
+        pooledBytes = 0;
+    }
+}
@@ -0,0 +1,110 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+
+/**
+ * Column of primitive float values stored off-heap, in direct byte buffers in native byte order
+ * taken from DirectBufferPool. Chunks don't load the Java heap and can be handed to native code,
+ * eg. TFLite interpreters, or written to file channels without copying (see asByteBuffers())
+ */
+public class DirectFloatColumn extends AbstractFloatColumn<ByteBuffer>
+{
+
+    @Override
+    protected ByteBuffer newChunk(int length)
+    {
+        return DirectBufferPool.acquire(length * Float.BYTES);
+    }
+
+    @Override
+    protected void releaseChunk(ByteBuffer chunk)
+    {
+        DirectBufferPool.release(chunk);
+    }
+
+    @Override
+    protected void move(ByteBuffer src, int srcPos, ByteBuffer dst, int dstPos, int length)
+    {
+        if (src == dst)
+        {
+            // overlapping moves inside a chunk, eg. when removing cells
+            if (dstPos < srcPos)
+                for (int i = 0; i < length; i++)
+                    dst.putFloat((dstPos + i) * Float.BYTES, src.getFloat((srcPos + i) * Float.BYTES));
+            else
+                for (int i = length - 1; i >= 0; i--)
+                    dst.putFloat((dstPos + i) * Float.BYTES, src.getFloat((srcPos + i) * Float.BYTES));
+            return;
+        }
+        ByteBuffer from = src.duplicate();
+        from.limit((srcPos + length) * Float.BYTES).position(srcPos * Float.BYTES);
+        ByteBuffer to = dst.duplicate();
+        to.position(dstPos * Float.BYTES);
+        to.put(from);
+    }
+
+    @Override
+    protected float read(ByteBuffer chunk, int offset)
+    {
+        return chunk.getFloat(offset * Float.BYTES);
+    }
+
+    @Override
+    protected void write(ByteBuffer chunk, int offset, float value)
+    {
+        chunk.putFloat(offset * Float.BYTES, value);
+    }
+
+    @Override
+    protected void put(ByteBuffer chunk, int offset, int length, FloatBuffer buffer)
+    {
+        ByteBuffer segment = chunk.duplicate().order(ByteOrder.nativeOrder());
+        segment.limit((offset + length) * Float.BYTES).position(offset * Float.BYTES);
+        buffer.put(segment.asFloatBuffer());
+    }
+
+
+    /**
+     * Returns read-only views of the memory holding a range of cells, one per contiguous segment
+     * (see forEachSegment()), in native byte order. The views share memory with the column, so
+     * they are only valid until the column is modified. Blank cells hold NaN
+     * @param from index of the first cell (inclusive)
+     * @param to index of the last cell (exclusive)
+     * @return views of the range, in order
+     */
+    public ByteBuffer[] asByteBuffers(int from, int to)
+    {
+        if (from < 0 || to > size || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range: [%s, %s), Size: %s", from, to, size));
+        int count = 0;
+        for (int i = from; i < to; i += Math.min(to - i, segmentLength(i)))
+            count += 1;
+
+        ByteBuffer[] views = new ByteBuffer[count];
+        int i = from;
+        for (int v = 0; v < count; v++)
+        {
+            int length = Math.min(to - i, segmentLength(i));
+            ByteBuffer view = chunk(i).asReadOnlyBuffer();
+            view.limit((offset(i) + length) * Float.BYTES).position(offset(i) * Float.BYTES);
+            views[v] = view.slice().order(ByteOrder.nativeOrder());
+            i += length;
+        }
+        return views;
+    }
+
+    @Override
+    public DirectFloatColumn copy()
+    {
+        return copyTo(new DirectFloatColumn());
+    }
+
+    @Override
+    public DirectFloatColumn snapshot()
+    {
+        return snapshotTo(new DirectFloatColumn());
+    }
+}
@@ -0,0 +1,113 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Column of primitive double values
+ */
+public class DoubleColumn extends ChunkedColumn<double[]>
+{
+
+    @Override
+    protected double[] newChunk(int length)
+    {
+        return new double[length];
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.DOUBLE;
+    }
+
+
+    /**
+     * Returns the primitive value of a cell. Blank cells return Double.NaN
+     * @param index index of the cell
+     * @return the value of the cell
+     */
+    @Override
+    public double getDouble(int index)
+    {
+        checkIndex(index);
+        return chunk(index)[offset(index)];
+    }
+
+
+    /**
+     * Appends a primitive value
+     * @param value value to append
+     */
+    public void addDouble(double value)
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = value;
+    }
+
+
+    /**
+     * Sets the primitive value of a cell
+     * @param index index of the cell
+     * @param value new value of the cell
+     */
+    public void setDouble(int index, double value)
+    {
+        checkIndex(index);
+        writableChunk(index)[offset(index)] = value;
+        setBlank(index, false);
+    }
+
+
+    @Override
+    public Object get(int index)
+    {
+        double value = getDouble(index);
+        return isBlank(index)? BLANK : value;
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return value instanceof Double || Columns.isBlank(value);
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        if (Columns.isBlank(value))
+            addBlank();
+        else
+            addDouble(((Number) value).doubleValue());
+    }
+
+    @Override
+    public void addBlank()
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = Double.NaN;
+        setBlank(index, true);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        if (Columns.isBlank(value))
+        {
+            setDouble(index, Double.NaN);
+            setBlank(index, true);
+        }
+        else
+            setDouble(index, ((Number) value).doubleValue());
+    }
+
+    @Override
+    public DoubleColumn copy()
+    {
+        return copyTo(new DoubleColumn());
+    }
+
+    @Override
+    public DoubleColumn snapshot()
+    {
+        return snapshotTo(new DoubleColumn());
+    }
+}
@@ -0,0 +1,137 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Column holding only blank cells. It is replaced by a typed column as soon as a non-blank value is stored
+ */
+public class EmptyColumn extends Column
+{
+    private int size = 0;
+
+
+    public EmptyColumn() {}
+
+    public EmptyColumn(int size)
+    {
+        this.size = size;
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.EMPTY;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public Object get(int index)
+    {
+        checkIndex(index);
+        return BLANK;
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        checkIndex(index);
+        return Double.NaN;
+    }
+
+    @Override
+    public boolean isBlank(int index)
+    {
+        checkIndex(index);
+        return true;
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return Columns.isBlank(value);
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        addBlank();
+    }
+
+    @Override
+    public void addBlank()
+    {
+        if (!isBounded() || size < capacity)
+            size += 1;
+    }
+
+    @Override
+    public void addBlanks(int count)
+    {
+        size = isBounded()? Math.min(capacity, size + count) : size + count;
+    }
+
+    @Override
+    public void addAll(Column source, int from, int to)
+    {
+        addBlanks(to - from);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        checkIndex(index);
+    }
+
+    @Override
+    public void remove(int index)
+    {
+        checkIndex(index);
+        size -= 1;
+    }
+
+    @Override
+    public void removeHead(int count)
+    {
+        if (count > size)
+            throw new IndexOutOfBoundsException(String.format("Count: %s, Size: %s", count, size));
+        size -= Math.max(0, count);
+    }
+
+    @Override
+    public int sealedCells()
+    {
+        return size;
+    }
+
+    @Override
+    public long estimateBytes()
+    {
+        return 0;
+    }
+
+    @Override
+    public void clear()
+    {
+        size = 0;
+    }
+
+    @Override
+    public EmptyColumn copy()
+    {
+        EmptyColumn copy = new EmptyColumn(size);
+        copy.capacity = capacity;
+        return copy;
+    }
+
+    @Override
+    public void setCapacity(int capacity)
+    {
+        this.capacity = Math.max(0, capacity);
+        if (isBounded())
+            size = Math.min(size, this.capacity);
+    }
+}
@@ -0,0 +1,47 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import java.nio.FloatBuffer;
+
+
+/**
+ * Column of primitive float values, stored in heap arrays
+ */
+public class FloatColumn extends AbstractFloatColumn<float[]>
+{
+
+    @Override
+    protected float[] newChunk(int length)
+    {
+        return new float[length];
+    }
+
+    @Override
+    protected float read(float[] chunk, int offset)
+    {
+        return chunk[offset];
+    }
+
+    @Override
+    protected void write(float[] chunk, int offset, float value)
+    {
+        chunk[offset] = value;
+    }
+
+    @Override
+    protected void put(float[] chunk, int offset, int length, FloatBuffer buffer)
+    {
+        buffer.put(chunk, offset, length);
+    }
+
+    @Override
+    public FloatColumn copy()
+    {
+        return copyTo(new FloatColumn());
+    }
+
+    @Override
+    public FloatColumn snapshot()
+    {
+        return snapshotTo(new FloatColumn());
+    }
+}
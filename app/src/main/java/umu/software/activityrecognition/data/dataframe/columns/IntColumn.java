@@ -0,0 +1,132 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Column of primitive int values
+ */
+public class IntColumn extends ChunkedColumn<int[]>
+{
+
+    @Override
+    protected int[] newChunk(int length)
+    {
+        return new int[length];
+    }
+
+    @Override
+    protected int cellBytes()
+    {
+        return 4;
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.INT;
+    }
+
+
+    /**
+     * Returns the primitive value of a cell. Blank cells return 0
+     * @param index index of the cell
+     * @return the value of the cell
+     */
+    public int getInt(int index)
+    {
+        checkIndex(index);
+        return chunk(index)[offset(index)];
+    }
+
+
+    @Override
+    public long getLong(int index)
+    {
+        return getInt(index);
+    }
+
+
+    /**
+     * Appends a primitive value
+     * @param value value to append
+     */
+    public void addInt(int value)
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = value;
+    }
+
+
+    /**
+     * Sets the primitive value of a cell
+     * @param index index of the cell
+     * @param value new value of the cell
+     */
+    public void setInt(int index, int value)
+    {
+        checkIndex(index);
+        writableChunk(index)[offset(index)] = value;
+        setBlank(index, false);
+    }
+
+
+    @Override
+    public Object get(int index)
+    {
+        int value = getInt(index);
+        return isBlank(index)? BLANK : value;
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        int value = getInt(index);
+        return isBlank(index)? Double.NaN : value;
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return Columns.isInteger(value) || Columns.isBlank(value);
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        if (Columns.isBlank(value))
+            addBlank();
+        else
+            addInt(((Number) value).intValue());
+    }
+
+    @Override
+    public void addBlank()
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = 0;
+        setBlank(index, true);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        if (Columns.isBlank(value))
+        {
+            setInt(index, 0);
+            setBlank(index, true);
+        }
+        else
+            setInt(index, ((Number) value).intValue());
+    }
+
+    @Override
+    public IntColumn copy()
+    {
+        return copyTo(new IntColumn());
+    }
+
+    @Override
+    public IntColumn snapshot()
+    {
+        return snapshotTo(new IntColumn());
+    }
+}
@@ -0,0 +1,120 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Column of primitive long values
+ */
+public class LongColumn extends ChunkedColumn<long[]>
+{
+
+    @Override
+    protected long[] newChunk(int length)
+    {
+        return new long[length];
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.LONG;
+    }
+
+
+    /**
+     * Returns the primitive value of a cell. Blank cells return 0L
+     * @param index index of the cell
+     * @return the value of the cell
+     */
+    @Override
+    public long getLong(int index)
+    {
+        checkIndex(index);
+        return chunk(index)[offset(index)];
+    }
+
+
+    /**
+     * Appends a primitive value
+     * @param value value to append
+     */
+    public void addLong(long value)
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = value;
+    }
+
+
+    /**
+     * Sets the primitive value of a cell
+     * @param index index of the cell
+     * @param value new value of the cell
+     */
+    public void setLong(int index, long value)
+    {
+        checkIndex(index);
+        writableChunk(index)[offset(index)] = value;
+        setBlank(index, false);
+    }
+
+
+    @Override
+    public Object get(int index)
+    {
+        long value = getLong(index);
+        return isBlank(index)? BLANK : value;
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        long value = getLong(index);
+        return isBlank(index)? Double.NaN : value;
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return value instanceof Long || Columns.isBlank(value);
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        if (Columns.isBlank(value))
+            addBlank();
+        else
+            addLong(((Number) value).longValue());
+    }
+
+    @Override
+    public void addBlank()
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = 0L;
+        setBlank(index, true);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        if (Columns.isBlank(value))
+        {
+            setLong(index, 0L);
+            setBlank(index, true);
+        }
+        else
+            setLong(index, ((Number) value).longValue());
+    }
+
+    @Override
+    public LongColumn copy()
+    {
+        return copyTo(new LongColumn());
+    }
+
+    @Override
+    public LongColumn snapshot()
+    {
+        return snapshotTo(new LongColumn());
+    }
+}
@@ -0,0 +1,93 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Column of boxed objects, used for values that don't fit any primitive column
+ */
+public class ObjectColumn extends ChunkedColumn<Object[]>
+{
+
+    @Override
+    protected Object[] newChunk(int length)
+    {
+        return new Object[length];
+    }
+
+    /**
+     * References plus a rough estimate of the size of small boxed values
+     */
+    @Override
+    protected int cellBytes()
+    {
+        return 24;
+    }
+
+    @Override
+    protected void releaseCell(Object[] chunk, int offset)
+    {
+        chunk[offset] = null;
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.OBJECT;
+    }
+
+    @Override
+    public Object get(int index)
+    {
+        checkIndex(index);
+        return chunk(index)[offset(index)];
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        return Columns.toDouble(get(index));
+    }
+
+    @Override
+    public boolean isBlank(int index)
+    {
+        return Columns.isBlank(get(index));
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return true;
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = (value == null)? BLANK : value;
+    }
+
+    @Override
+    public void addBlank()
+    {
+        add(BLANK);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        checkIndex(index);
+        writableChunk(index)[offset(index)] = (value == null)? BLANK : value;
+    }
+
+    @Override
+    public ObjectColumn copy()
+    {
+        return copyTo(new ObjectColumn());
+    }
+
+    @Override
+    public ObjectColumn snapshot()
+    {
+        return snapshotTo(new ObjectColumn());
+    }
+}
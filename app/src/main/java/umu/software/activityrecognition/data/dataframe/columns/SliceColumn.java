@@ -0,0 +1,144 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+
+/**
+ * Read-only view over a range of cells of another column. Cells are read from the underlying
+ * column without copying them, so the view reflects its current content: it must not be used
+ * after cells before the end of the range are removed from the underlying column.
+ * Copies (see copy()) are regular columns of the same type
+ */
+public class SliceColumn extends Column
+{
+    private final Column base;
+    private final int from;
+    private final int size;
+
+
+    /**
+     * Creates a view over a range of cells
+     * @param base the underlying column
+     * @param from index of the first cell (inclusive)
+     * @param to index of the last cell (exclusive)
+     */
+    public SliceColumn(Column base, int from, int to)
+    {
+        if (from < 0 || to > base.size() || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range: [%s, %s), Size: %s", from, to, base.size()));
+        if (base instanceof SliceColumn)
+        {
+            SliceColumn slice = (SliceColumn) base;
+            base = slice.base;
+            from += slice.from;
+            to += slice.from;
+        }
+        this.base = base;
+        this.from = from;
+        this.size = to - from;
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return base.getType();
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public Object get(int index)
+    {
+        checkIndex(index);
+        return base.get(from + index);
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        checkIndex(index);
+        return base.getDouble(from + index);
+    }
+
+    @Override
+    public long getLong(int index)
+    {
+        checkIndex(index);
+        return base.getLong(from + index);
+    }
+
+    @Override
+    public boolean isBlank(int index)
+    {
+        checkIndex(index);
+        return base.isBlank(from + index);
+    }
+
+    /**
+     * Slices accept no values, so that series holding a slice copy it before modifying it
+     * (see Columns.promote())
+     */
+    @Override
+    public boolean accepts(Object value)
+    {
+        return false;
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void addBlank()
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void remove(int index)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void clear()
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void setCapacity(int capacity)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public long estimateBytes()
+    {
+        return 0;
+    }
+
+    @Override
+    public Column copy()
+    {
+        Column copy = Columns.newColumn(getType());
+        copy.addAll(base, from, from + size);
+        return copy;
+    }
+
+
+    private UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException("Column slices are read-only");
+    }
+}
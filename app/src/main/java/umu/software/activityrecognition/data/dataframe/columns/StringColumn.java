@@ -0,0 +1,279 @@
+package umu.software.activityrecognition.data.dataframe.columns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Dictionary-encoded column of strings. Each cell stores the int code of its string, or -1 for null.
+ * Numeric values of the strings are parsed once per dictionary entry, also when read concurrently
+ */
+public class StringColumn extends ChunkedColumn<int[]>
+{
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    private double[] parsed = new double[0];
+    // number of parsed entries, published after their values so that concurrent readers see them
+    private volatile int parsedCount = 0;
+    private long dictionaryChars = 0;
+
+
+    @Override
+    protected int[] newChunk(int length)
+    {
+        return new int[length];
+    }
+
+    @Override
+    protected int cellBytes()
+    {
+        return 4;
+    }
+
+    @Override
+    public ColumnType getType()
+    {
+        return ColumnType.STRING;
+    }
+
+
+    /**
+     * Returns the code of the given string, adding it to the dictionary if necessary
+     * @param value the string to encode
+     * @return the code of the string or -1 if the string is null
+     */
+    public int encode(String value)
+    {
+        if (value == null)
+            return -1;
+        Integer code = codes.get(value);
+        if (code == null)
+        {
+            code = dictionary.size();
+            dictionary.add(value);
+            codes.put(value, code);
+            dictionaryChars += value.length();
+        }
+        return code;
+    }
+
+
+    /**
+     * Returns the string of a dictionary code
+     * @param code the code, as returned by encode() or getCode()
+     * @return the string of the code, or null for -1
+     */
+    public String decode(int code)
+    {
+        return (code < 0)? null : dictionary.get(code);
+    }
+
+
+    /**
+     * Returns the number of distinct strings of the dictionary. Codes range from 0 to the
+     * dictionary size (exclusive). The dictionary may hold strings no cell refers to anymore
+     * @return the size of the dictionary
+     */
+    public int getDictionarySize()
+    {
+        return dictionary.size();
+    }
+
+
+    /**
+     * Returns the dictionary code of a cell
+     * @param index index of the cell
+     * @return the code of the cell's string, or -1 if it is null
+     */
+    public int getCode(int index)
+    {
+        checkIndex(index);
+        return chunk(index)[offset(index)];
+    }
+
+
+    /**
+     * Appends a cell by the code of its string
+     * @param code a code of the dictionary, or -1 for null
+     */
+    public void addCode(int code)
+    {
+        if (code < -1 || code >= dictionary.size())
+            throw new IllegalArgumentException(String.format("Code: %s, Dictionary size: %s", code, dictionary.size()));
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = code;
+    }
+
+
+    /**
+     * Returns the string of a cell
+     * @param index index of the cell
+     * @return the string of the cell
+     */
+    public String getString(int index)
+    {
+        return decode(getCode(index));
+    }
+
+
+    /**
+     * Appends a string
+     * @param value string to append
+     */
+    public void addString(String value)
+    {
+        int code = encode(value);
+        int index = appendIndex();
+        writableChunk(index)[offset(index)] = code;
+    }
+
+
+    /**
+     * Sets the string of a cell
+     * @param index index of the cell
+     * @param value new string of the cell
+     */
+    public void setString(int index, String value)
+    {
+        checkIndex(index);
+        writableChunk(index)[offset(index)] = encode(value);
+    }
+
+
+    @Override
+    public Object get(int index)
+    {
+        return getString(index);
+    }
+
+    @Override
+    public double getDouble(int index)
+    {
+        checkIndex(index);
+        int code = chunk(index)[offset(index)];
+        if (code < 0)
+            return Double.NaN;
+        if (code >= parsedCount)
+            parseDictionary();
+        return parsed[code];
+    }
+
+    /**
+     * Parses the numeric values of the dictionary entries that were not parsed yet
+     */
+    private synchronized void parseDictionary()
+    {
+        if (dictionary.size() > parsed.length)
+            parsed = Arrays.copyOf(parsed, Math.max(dictionary.size(), 2 * parsed.length));
+        for (int code = parsedCount; code < dictionary.size(); code++)
+        {
+            parsed[code] = Columns.toDouble(dictionary.get(code));
+            parsedCount = code + 1;
+        }
+    }
+
+    @Override
+    public boolean isBlank(int index)
+    {
+        return Columns.isBlank(getString(index));
+    }
+
+    @Override
+    public boolean accepts(Object value)
+    {
+        return value == null || value instanceof String;
+    }
+
+    @Override
+    public void add(Object value)
+    {
+        addString((String) value);
+    }
+
+    @Override
+    public void addBlank()
+    {
+        addString(BLANK);
+    }
+
+    @Override
+    public void set(int index, Object value)
+    {
+        setString(index, (String) value);
+    }
+
+    @Override
+    public void addAll(Column source, int from, int to)
+    {
+        if (!(source instanceof StringColumn))
+        {
+            super.addAll(source, from, to);
+            return;
+        }
+        StringColumn other = (StringColumn) source;
+        int[] mapping = new int[other.dictionary.size()];
+        Arrays.fill(mapping, -2);
+        ensureCapacity(size + to - from);
+        for (int i = from; i < to; i++)
+        {
+            other.checkIndex(i);
+            int code = other.chunk(i)[other.offset(i)];
+            if (code >= 0 && mapping[code] == -2)
+                mapping[code] = encode(other.dictionary.get(code));
+            int index = appendIndex();
+            writableChunk(index)[offset(index)] = (code < 0)? code : mapping[code];
+        }
+    }
+
+    @Override
+    public void addFrom(Column source, int index)
+    {
+        if (source instanceof StringColumn)
+            addString(((StringColumn) source).getString(index));
+        else
+            super.addFrom(source, index);
+    }
+
+    /**
+     * Estimates the memory of the codes and of the dictionary, counting about 80 bytes of
+     * overhead per dictionary entry for the strings and their hash map entries
+     */
+    @Override
+    public long estimateBytes()
+    {
+        return super.estimateBytes() + 80L * dictionary.size() + 2 * dictionaryChars + 8L * parsed.length;
+    }
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        dictionary.clear();
+        codes.clear();
+        parsedCount = 0;
+        dictionaryChars = 0;
+    }
+
+    @Override
+    public StringColumn copy()
+    {
+        StringColumn copy = copyTo(new StringColumn());
+        copy.dictionary.addAll(dictionary);
+        copy.codes.putAll(codes);
+        copy.dictionaryChars = dictionaryChars;
+        return copy;
+    }
+
+    @Override
+    public StringColumn snapshot()
+    {
+        StringColumn snapshot = snapshotTo(new StringColumn());
+        snapshot.dictionary.addAll(dictionary);
+        snapshot.codes.putAll(codes);
+        snapshot.dictionaryChars = dictionaryChars;
+        snapshot.parsed = Arrays.copyOf(parsed, parsedCount);
+        snapshot.parsedCount = parsedCount;
+        return snapshot;
+    }
+}
@@ -0,0 +1,185 @@
+package umu.software.activityrecognition.data.persistence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Series;
+import umu.software.activityrecognition.data.dataframe.columns.AbstractFloatColumn;
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.StringColumn;
+
+
+/**
+ * Streaming writers of dataframes. Rows are formatted into a reusable buffer that is flushed to the
+ * output every BUFFER_CHARS characters, so that the memory used to write a dataframe doesn't depend
+ * on its size. Blank cells, null values included, are written as empty cells (see Column)
+ */
+public class DataFrameWriter
+{
+    public static final int BUFFER_CHARS = 1 << 15;
+
+
+    /**
+     * Writes a cell of a column into a builder
+     */
+    private interface CellWriter
+    {
+        void append(StringBuilder builder, int row);
+    }
+
+
+    private DataFrameWriter() {}
+
+
+    /**
+     * Writes a dataframe as UTF-8 CSV, with a header of column names and comma separated cells.
+     * The stream is flushed but not closed
+     * @param df the dataframe to write. A snapshot is written, so it can be modified meanwhile
+     * @param out the stream to write into
+     * @throws IOException if the stream can't be written
+     */
+    public static void writeCsv(DataFrame df, OutputStream out) throws IOException
+    {
+        writeCsv(df, out, true, ",");
+    }
+
+
+    /**
+     * Writes a dataframe as UTF-8 CSV. The stream is flushed but not closed
+     * @param df the dataframe to write. A snapshot is written, so it can be modified meanwhile
+     * @param out the stream to write into
+     * @param printColumnNames whether the first row should contain the column names
+     * @param sep separator to divide cells
+     * @throws IOException if the stream can't be written
+     */
+    public static void writeCsv(DataFrame df, OutputStream out, boolean printColumnNames, String sep) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writeCsv(df, writer, printColumnNames, sep);
+        writer.flush();
+    }
+
+
+    /**
+     * Writes a dataframe as a binary columnar segment (see SegmentFile), which is several times
+     * smaller than CSV for sensor data and can be memory-mapped back (see SegmentReader).
+     * The stream is flushed but not closed
+     * @param df the dataframe to write. A snapshot is written, so it can be modified meanwhile
+     * @param out the stream to write into
+     * @param compress whether to deflate the column blocks
+     * @throws IOException if the stream can't be written
+     */
+    public static void writeSegment(DataFrame df, OutputStream out, boolean compress) throws IOException
+    {
+        DataFrame snapshot = df.snapshot();
+        SegmentFile.write(snapshot, 0, snapshot.countRows(), out, compress);
+        out.flush();
+    }
+
+
+    /**
+     * Writes a dataframe as CSV. Cells are written according to the type of their column: numbers
+     * without boxing nor formatting them through String.format() and strings straight from the
+     * dictionary of their column (see StringColumn). The text of each cell is that of
+     * String.valueOf() of its value, blank cells are empty
+     * @param df the dataframe to write. A snapshot is written, so it can be modified meanwhile
+     * @param writer the writer to write into. It is neither flushed nor closed
+     * @param printColumnNames whether the first row should contain the column names
+     * @param sep separator to divide cells
+     * @throws IOException if the writer fails
+     */
+    public static void writeCsv(DataFrame df, Writer writer, boolean printColumnNames, String sep) throws IOException
+    {
+        DataFrame snapshot = df.snapshot();
+        String[] columns = snapshot.columns();
+        if (columns.length == 0)
+            return;
+
+        StringBuilder builder = new StringBuilder(BUFFER_CHARS + 256);
+        char[] chars = new char[BUFFER_CHARS + 256];
+        String newLine = System.lineSeparator();
+
+        if (printColumnNames)
+        {
+            for (int c = 0; c < columns.length; c++)
+                builder.append(columns[c]).append((c < columns.length - 1)? sep : newLine);
+        }
+
+        CellWriter[] cells = new CellWriter[columns.length];
+        int c = 0;
+        for (Series s : snapshot.values())
+            cells[c++] = newCellWriter(s.getColumn());
+
+        int last = cells.length - 1;
+        for (int r = 0; r < snapshot.countRows(); r++)
+        {
+            for (c = 0; c < last; c++)
+            {
+                cells[c].append(builder, r);
+                builder.append(sep);
+            }
+            cells[last].append(builder, r);
+            builder.append(newLine);
+            if (builder.length() >= BUFFER_CHARS)
+                chars = flush(builder, chars, writer);
+        }
+        flush(builder, chars, writer);
+    }
+
+
+    /**
+     * Moves the content of the builder to the writer through a reusable array
+     * @return the array, grown if the builder didn't fit
+     */
+    private static char[] flush(StringBuilder builder, char[] chars, Writer writer) throws IOException
+    {
+        if (builder.length() > chars.length)
+            chars = new char[builder.length()];
+        builder.getChars(0, builder.length(), chars, 0);
+        writer.write(chars, 0, builder.length());
+        builder.setLength(0);
+        return chars;
+    }
+
+
+    /**
+     * Returns a writer of the cells of a column, producing the same text as String.valueOf() of
+     * the cells' values
+     */
+    private static CellWriter newCellWriter(Column column)
+    {
+        if (column instanceof StringColumn)
+        {
+            StringColumn strings = (StringColumn) column;
+            return (builder, row) -> builder.append(strings.decode(strings.getCode(row)));
+        }
+        if (column instanceof AbstractFloatColumn)
+        {
+            AbstractFloatColumn<?> floats = (AbstractFloatColumn<?>) column;
+            return (builder, row) -> {
+                if (!floats.isBlank(row))
+                    builder.append(floats.getFloat(row));
+            };
+        }
+        switch (column.getType())
+        {
+            case DOUBLE:
+                return (builder, row) -> {
+                    if (!column.isBlank(row))
+                        builder.append(column.getDouble(row));
+                };
+            case LONG:
+            case INT:
+                return (builder, row) -> {
+                    if (!column.isBlank(row))
+                        builder.append(column.getLong(row));
+                };
+            default:
+                return (builder, row) -> builder.append(column.get(row));
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package umu.software.activityrecognition.data.persistence;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.function.Function;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
@@ -12,7 +15,8 @@ public class DataFrameWriterFactory
     private DataFrameWriterFactory() {}
 
     /**
-     * Creates a new writer to transform DataFrames into CSV documents
+     * Creates a new writer to transform DataFrames into CSV documents. See DataFrameWriter, which
+     * writes CSV straight into a stream without building the whole document in memory
      * @param printColumnNames whether the first row should contain the column names
      * @param sep separator to divide cells
      * @return a writer function
@@ -20,15 +24,17 @@ public class DataFrameWriterFactory
     public static Function<DataFrame, String> newToCSV(boolean printColumnNames, String sep)
     {
         return (df) -> {
-            StringBuilder builder = new StringBuilder();
-            if (printColumnNames)
-                addCSVStringsToBuilder(builder, df.columns(), sep);
-
-            df.forEachRowArray(objects -> {
-                addCSVStringsToBuilder(builder, objects, sep);
-                return null;
-            });
-            return builder.toString();
+            StringWriter writer = new StringWriter();
+            try
+            {
+                DataFrameWriter.writeCsv(df, writer, printColumnNames, sep);
+            }
+            catch (IOException e)
+            {
+                // string writers don't fail
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
         };
     }
 
@@ -43,17 +49,4 @@ public class DataFrameWriterFactory
             return "TODO"; //TODO
         };
     }
-
-
-    private static void addCSVStringsToBuilder(StringBuilder builder, Object[] objs, String sep)
-    {
-        if (objs.length == 0)
-            return;
-        for (int i = 0; i < objs.length - 1; i++)
-            builder
-                    .append(String.format("%s", objs[i]))
-                    .append(sep);
-        builder.append(objs[objs.length-1]);
-        builder.append(System.lineSeparator());
-    }
 }
@@ -0,0 +1,452 @@
+package umu.software.activityrecognition.data.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Series;
+import umu.software.activityrecognition.data.dataframe.columns.AbstractFloatColumn;
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.dataframe.columns.StringColumn;
+
+
+/**
+ * Binary columnar files holding a range of rows of a dataframe. A segment starts with a header
+ * (magic number, version, number of rows, number of columns, rows per block, name and type of each
+ * column) followed by blocks of up to BLOCK_ROWS rows. A block holds a chunk for each column: a
+ * chunk header (stored and raw length, codec, minimum and maximum of the numeric values) and a
+ * payload made of the bitmap of the blank cells and the values in the column's primitive type.
+ * Strings are written as an int code per cell followed by the dictionary of their distinct UTF-8
+ * values, objects as their string. Payloads are optionally deflated.
+ * Segments are little-endian and uncompressed payloads are aligned to 8 bytes, so that they can be
+ * memory-mapped and read in place (see SegmentReader)
+ */
+public class SegmentFile
+{
+    public static final int MAGIC = 0x44465347; // "DFSG"
+    public static final int VERSION = 3;
+
+    /** Maximum number of rows of a block */
+    public static final int BLOCK_ROWS = 1 << 16;
+
+    static final int CODEC_NONE = 0;
+    static final int CODEC_DEFLATE = 1;
+    static final int CHUNK_HEADER_BYTES = 32;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+
+    private SegmentFile() {}
+
+
+    /**
+     * Writes a range of rows of a dataframe into a new uncompressed segment file
+     * @param df the dataframe to write. It must not be modified while it is written
+     * @param from index of the first row (inclusive)
+     * @param to index of the last row (exclusive)
+     * @param file the file to write, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public static void write(DataFrame df, int from, int to, File file) throws IOException
+    {
+        write(df, from, to, file, false);
+    }
+
+
+    /**
+     * Writes a range of rows of a dataframe into a new segment file
+     * @param df the dataframe to write. It must not be modified while it is written
+     * @param from index of the first row (inclusive)
+     * @param to index of the last row (exclusive)
+     * @param file the file to write, replaced if it exists
+     * @param compress whether to deflate the payloads. Deflated payloads are smaller but are
+     *                 inflated on the heap when read
+     * @throws IOException if the file can't be written
+     */
+    public static void write(DataFrame df, int from, int to, File file, boolean compress) throws IOException
+    {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))
+        {
+            write(df, from, to, out, compress);
+        }
+    }
+
+
+    /**
+     * Writes a range of rows of a dataframe as a segment into a stream. The stream is not closed
+     * @param df the dataframe to write. It must not be modified while it is written
+     * @param from index of the first row (inclusive)
+     * @param to index of the last row (exclusive)
+     * @param out the stream to write into
+     * @param compress whether to deflate the payloads
+     * @throws IOException if the stream can't be written
+     */
+    public static void write(DataFrame df, int from, int to, OutputStream out, boolean compress) throws IOException
+    {
+        if (from < 0 || to > df.countRows() || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range: [%s, %s), Rows: %s", from, to, df.countRows()));
+
+        Column[] columns = new Column[df.size()];
+        Output buffer = new Output(BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(to - from);
+        buffer.putInt(columns.length);
+        buffer.putInt(BLOCK_ROWS);
+        int c = 0;
+        for (Map.Entry<String, Series> e : df.entrySet())
+        {
+            columns[c++] = e.getValue().getColumn();
+            buffer.putString(e.getKey());
+            buffer.put((byte) storedType(e.getValue().getType()).ordinal());
+        }
+        buffer.align();
+        buffer.writeTo(out);
+
+        Deflater deflater = compress? new Deflater(Deflater.BEST_SPEED) : null;
+        try
+        {
+            for (int start = from; start < to; start += BLOCK_ROWS)
+            {
+                int end = Math.min(to, start + BLOCK_ROWS);
+                for (Column column : columns)
+                {
+                    buffer.clear();
+                    writePayload(buffer, column, start, end);
+                    writeChunk(out, buffer, deflater, column, start, end);
+                }
+            }
+        }
+        finally
+        {
+            if (deflater != null)
+                deflater.end();
+        }
+    }
+
+
+    /**
+     * Returns the type a column is stored as: objects are stored as strings
+     */
+    static ColumnType storedType(ColumnType type)
+    {
+        return (type == ColumnType.OBJECT)? ColumnType.STRING : type;
+    }
+
+
+    /**
+     * Writes the header and the payload of a chunk. The payload is deflated if a deflater is given
+     * and deflating makes it smaller
+     */
+    private static void writeChunk(OutputStream out, Output payload, Deflater deflater, Column column, int from, int to) throws IOException
+    {
+        int rawLength = payload.position();
+        ByteArrayOutputStream deflated = null;
+        if (deflater != null)
+        {
+            deflater.reset();
+            deflater.setInput(payload.array(), 0, rawLength);
+            deflater.finish();
+            deflated = new ByteArrayOutputStream(rawLength / 2);
+            byte[] bytes = new byte[BUFFER_SIZE];
+            while (!deflater.finished())
+                deflated.write(bytes, 0, deflater.deflate(bytes));
+            if (deflated.size() >= rawLength)
+                deflated = null;
+        }
+
+        double min = Double.NaN;
+        double max = Double.NaN;
+        if (storedType(column.getType()).isNumeric())
+            for (int i = from; i < to; i++)
+            {
+                double value = column.getDouble(i);
+                if (Double.isNaN(value))
+                    continue;
+                if (Double.isNaN(min) || value < min)
+                    min = value;
+                if (Double.isNaN(max) || value > max)
+                    max = value;
+            }
+
+        int storedLength = (deflated != null)? deflated.size() : rawLength;
+        Output header = new Output(CHUNK_HEADER_BYTES);
+        header.putInt(storedLength);
+        header.putInt(rawLength);
+        header.put((byte) ((deflated != null)? CODEC_DEFLATE : CODEC_NONE));
+        header.align();
+        header.putDouble(min);
+        header.putDouble(max);
+        header.writeTo(out);
+        if (deflated != null)
+            deflated.writeTo(out);
+        else
+            payload.writeTo(out);
+        out.write(new byte[Output.padding(storedLength)]);
+    }
+
+
+    /**
+     * Writes the payload of a chunk: the blank bitmap followed by the values
+     */
+    private static void writePayload(Output out, Column column, int from, int to)
+    {
+        BitSet blanks = new BitSet(to - from);
+        for (int i = from; i < to; i++)
+            if (column.isBlank(i))
+                blanks.set(i - from);
+        long[] words = blanks.toLongArray();
+        out.putInt(words.length);
+        out.align();
+        for (long word : words)
+            out.putLong(word);
+
+        int count = to - from;
+        switch (storedType(column.getType()))
+        {
+            case FLOAT:
+                out.reserve(4 * count);
+                if (column instanceof AbstractFloatColumn)
+                    ((AbstractFloatColumn<?>) column).exportTo(from, to, out.buffer.asFloatBuffer());
+                else
+                    for (int i = from; i < to; i++)
+                        out.buffer.putFloat(out.position() + 4 * (i - from), (float) column.getDouble(i));
+                out.skip(4 * count);
+                break;
+            case DOUBLE:
+                out.reserve(8 * count);
+                for (int i = from; i < to; i++)
+                    out.buffer.putDouble(out.position() + 8 * (i - from), column.getDouble(i));
+                out.skip(8 * count);
+                break;
+            case LONG:
+                out.reserve(8 * count);
+                for (int i = from; i < to; i++)
+                    out.buffer.putLong(out.position() + 8 * (i - from), column.getLong(i));
+                out.skip(8 * count);
+                break;
+            case INT:
+                out.reserve(4 * count);
+                for (int i = from; i < to; i++)
+                    out.buffer.putInt(out.position() + 4 * (i - from), (int) column.getLong(i));
+                out.skip(4 * count);
+                break;
+            case STRING:
+                writeStrings(out, column, from, to);
+                break;
+            default:
+                // empty columns only hold blank cells
+        }
+    }
+
+
+    /**
+     * Writes the strings of a column as the code of each cell followed by a dictionary of their
+     * distinct values. String columns are already encoded, other columns are encoded while written
+     */
+    private static void writeStrings(Output out, Column column, int from, int to)
+    {
+        if (column instanceof StringColumn)
+        {
+            StringColumn strings = (StringColumn) column;
+            for (int i = from; i < to; i++)
+                out.putInt(strings.getCode(i));
+            out.putInt(strings.getDictionarySize());
+            for (int code = 0; code < strings.getDictionarySize(); code++)
+                out.putString(strings.decode(code));
+            return;
+        }
+
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        for (int i = from; i < to; i++)
+        {
+            Object value = column.get(i);
+            if (value == null)
+            {
+                out.putInt(-1);
+                continue;
+            }
+            Integer code = codes.get(value.toString());
+            if (code == null)
+            {
+                code = codes.size();
+                codes.put(value.toString(), code);
+            }
+            out.putInt(code);
+        }
+        out.putInt(codes.size());
+        for (String value : codes.keySet())
+            out.putString(value);
+    }
+
+
+    /**
+     * Opens a segment file through a memory mapping, giving access to its columns block by block
+     * @param file the segment file
+     * @return a reader of the segment
+     * @throws IOException if the file can't be read or is not a segment file of the current version
+     */
+    public static SegmentReader open(File file) throws IOException
+    {
+        return new SegmentReader(map(file));
+    }
+
+
+    /**
+     * Reads a segment file into a new dataframe
+     * @param file the segment file
+     * @return a dataframe with the rows of the segment
+     * @throws IOException if the file can't be read or is not a segment file of the current version
+     */
+    public static DataFrame read(File file) throws IOException
+    {
+        return read(map(file));
+    }
+
+
+    private static ByteBuffer map(File file) throws IOException
+    {
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel())
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+
+    /**
+     * Reads a segment into a new dataframe
+     * @param buffer buffer holding the segment, from its position on
+     * @return a dataframe with the rows of the segment
+     * @throws IOException if the buffer doesn't hold a segment of the current version
+     */
+    public static DataFrame read(ByteBuffer buffer) throws IOException
+    {
+        return new SegmentReader(buffer).toDataFrame();
+    }
+
+
+    static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Growable little-endian heap buffer in which headers and payloads are composed
+     */
+    private static final class Output
+    {
+        private ByteBuffer buffer;
+
+        Output(int capacity)
+        {
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        static int padding(int length)
+        {
+            return (8 - (length & 7)) & 7;
+        }
+
+        void reserve(int bytes)
+        {
+            if (buffer.remaining() >= bytes)
+                return;
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+            ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        void put(byte value)
+        {
+            reserve(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value)
+        {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value)
+        {
+            reserve(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value)
+        {
+            reserve(8);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value)
+        {
+            if (value == null)
+            {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            reserve(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void align()
+        {
+            int padding = padding(buffer.position());
+            reserve(padding);
+            buffer.put(new byte[padding]);
+        }
+
+        void skip(int bytes)
+        {
+            buffer.position(buffer.position() + bytes);
+        }
+
+        int position()
+        {
+            return buffer.position();
+        }
+
+        byte[] array()
+        {
+            return buffer.array();
+        }
+
+        void clear()
+        {
+            Arrays.fill(buffer.array(), 0, buffer.position(), (byte) 0);
+            buffer.clear();
+        }
+
+        void writeTo(OutputStream out) throws IOException
+        {
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package umu.software.activityrecognition.data.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Series;
+import umu.software.activityrecognition.data.dataframe.columns.AbstractFloatColumn;
+import umu.software.activityrecognition.data.dataframe.columns.Column;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+import umu.software.activityrecognition.data.dataframe.columns.DoubleColumn;
+import umu.software.activityrecognition.data.dataframe.columns.EmptyColumn;
+import umu.software.activityrecognition.data.dataframe.columns.IntColumn;
+import umu.software.activityrecognition.data.dataframe.columns.LongColumn;
+import umu.software.activityrecognition.data.dataframe.columns.StringColumn;
+
+
+/**
+ * Reader of a segment of the current version (see SegmentFile), usually memory-mapped. Values of
+ * uncompressed chunks are exposed as read-only typed views of the segment, without copies; deflated
+ * chunks are inflated on the heap each time they are accessed. Cells whose bit is set in the blank
+ * bitmap of their chunk hold undefined values.
+ * Readers are immutable and can be shared between threads
+ */
+public class SegmentReader
+{
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final int blockRows;
+    private final Map<String, Integer> indices = new LinkedHashMap<>();
+    private final ColumnType[] types;
+    // position of the header of each chunk, by block and column
+    private final int[][] chunks;
+
+
+    SegmentReader(ByteBuffer segment) throws IOException
+    {
+        buffer = segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 20 || buffer.getInt() != SegmentFile.MAGIC)
+            throw new IOException("Not a dataframe segment");
+        int version = buffer.getInt();
+        if (version != SegmentFile.VERSION)
+            throw new IOException(String.format("Unsupported segment version %s", version));
+        rows = buffer.getInt();
+        int columns = buffer.getInt();
+        blockRows = buffer.getInt();
+        if (rows < 0 || columns < 0 || blockRows <= 0)
+            throw new IOException("Corrupted dataframe segment");
+
+        types = new ColumnType[columns];
+        for (int c = 0; c < columns; c++)
+        {
+            indices.put(SegmentFile.readString(buffer), c);
+            types[c] = ColumnType.values()[buffer.get()];
+        }
+
+        int position = align(buffer.position());
+        chunks = new int[(rows + blockRows - 1) / blockRows][columns];
+        for (int[] block : chunks)
+            for (int c = 0; c < columns; c++)
+            {
+                if (position + SegmentFile.CHUNK_HEADER_BYTES > buffer.limit())
+                    throw new IOException("Truncated dataframe segment");
+                block[c] = position;
+                int storedLength = buffer.getInt(position);
+                position += SegmentFile.CHUNK_HEADER_BYTES + align(storedLength);
+            }
+        if (position > buffer.limit())
+            throw new IOException("Truncated dataframe segment");
+    }
+
+
+    private static int align(int length)
+    {
+        return (length + 7) & ~7;
+    }
+
+
+    /**
+     * Returns the number of rows of the segment
+     * @return the number of rows of the segment
+     */
+    public int countRows()
+    {
+        return rows;
+    }
+
+
+    /**
+     * Returns the number of blocks of the segment
+     * @return the number of blocks of the segment
+     */
+    public int getBlockCount()
+    {
+        return chunks.length;
+    }
+
+
+    /**
+     * Returns the number of rows of a block
+     * @param block index of the block
+     * @return the number of rows of the block
+     */
+    public int countBlockRows(int block)
+    {
+        if (block < 0 || block >= chunks.length)
+            throw new IndexOutOfBoundsException(String.format("Block: %s, Blocks: %s", block, chunks.length));
+        return Math.min(blockRows, rows - block * blockRows);
+    }
+
+
+    /**
+     * Returns the index of the first row of a block
+     * @param block index of the block
+     * @return the index of the first row of the block in the segment
+     */
+    public int getBlockStart(int block)
+    {
+        return block * blockRows;
+    }
+
+
+    /**
+     * Returns the names of the columns of the segment, in order
+     * @return the names of the columns
+     */
+    public Iterable<String> columns()
+    {
+        return indices.keySet();
+    }
+
+
+    /**
+     * Returns the type a column is stored as
+     * @param column name of the column
+     * @return the type of the column. Objects are stored as strings
+     */
+    public ColumnType getType(String column)
+    {
+        return types[indexOf(column)];
+    }
+
+
+    private int indexOf(String column)
+    {
+        Integer index = indices.get(column);
+        if (index == null)
+            throw new IllegalArgumentException(String.format("No column %s in segment", column));
+        return index;
+    }
+
+
+    /**
+     * Returns the minimum of the non-blank values of a numeric column in a block. Blocks can be
+     * skipped through their statistics without reading their values
+     * @param block index of the block
+     * @param column name of the column
+     * @return the minimum, or NaN if the column is not numeric or the block has no values
+     */
+    public double getMin(int block, String column)
+    {
+        return buffer.getDouble(chunk(block, column) + 16);
+    }
+
+
+    /**
+     * Returns the maximum of the non-blank values of a numeric column in a block
+     * @param block index of the block
+     * @param column name of the column
+     * @return the maximum, or NaN if the column is not numeric or the block has no values
+     */
+    public double getMax(int block, String column)
+    {
+        return buffer.getDouble(chunk(block, column) + 24);
+    }
+
+
+    /**
+     * Returns whether a chunk is deflated, ie. whether its values are copied when read
+     * @param block index of the block
+     * @param column name of the column
+     * @return whether the chunk is deflated
+     */
+    public boolean isCompressed(int block, String column)
+    {
+        return buffer.get(chunk(block, column) + 8) == SegmentFile.CODEC_DEFLATE;
+    }
+
+
+    private int chunk(int block, String column)
+    {
+        countBlockRows(block);
+        return chunks[block][indexOf(column)];
+    }
+
+
+    /**
+     * Returns the blank cells of a column in a block
+     * @param block index of the block
+     * @param column name of the column
+     * @return bitset of the blank cells, indexed from the first row of the block
+     */
+    public BitSet getBlanks(int block, String column)
+    {
+        return blanks(payload(block, column));
+    }
+
+
+    /**
+     * Returns the values of a float column in a block
+     * @param block index of the block
+     * @param column name of the column
+     * @return read-only view of the values
+     */
+    public FloatBuffer getFloats(int block, String column)
+    {
+        checkType(column, ColumnType.FLOAT);
+        return values(block, column, 4).asFloatBuffer();
+    }
+
+
+    /**
+     * Returns the values of a double column in a block
+     * @param block index of the block
+     * @param column name of the column
+     * @return read-only view of the values
+     */
+    public DoubleBuffer getDoubles(int block, String column)
+    {
+        checkType(column, ColumnType.DOUBLE);
+        return values(block, column, 8).asDoubleBuffer();
+    }
+
+
+    /**
+     * Returns the values of a long column in a block
+     * @param block index of the block
+     * @param column name of the column
+     * @return read-only view of the values
+     */
+    public LongBuffer getLongs(int block, String column)
+    {
+        checkType(column, ColumnType.LONG);
+        return values(block, column, 8).asLongBuffer();
+    }
+
+
+    /**
+     * Returns the values of an int column, or the codes of a string column, in a block. Codes
+     * index the dictionary of the block (see getDictionary), blank strings have code -1
+     * @param block index of the block
+     * @param column name of the column
+     * @return read-only view of the values or codes
+     */
+    public IntBuffer getInts(int block, String column)
+    {
+        if (getType(column) != ColumnType.STRING)
+            checkType(column, ColumnType.INT);
+        return values(block, column, 4).asIntBuffer();
+    }
+
+
+    /**
+     * Returns the dictionary of a string column in a block
+     * @param block index of the block
+     * @param column name of the column
+     * @return the strings indexed by the codes of the block
+     */
+    public String[] getDictionary(int block, String column)
+    {
+        checkType(column, ColumnType.STRING);
+        return dictionary(payload(block, column), countBlockRows(block));
+    }
+
+
+    private void checkType(String column, ColumnType type)
+    {
+        if (getType(column) != type)
+            throw new IllegalArgumentException(String.format("Column %s has type %s, not %s", column, getType(column), type));
+    }
+
+
+    private ByteBuffer values(int block, String column, int bytes)
+    {
+        return values(payload(block, column), countBlockRows(block), bytes);
+    }
+
+
+    /**
+     * Returns the blank cells of a payload
+     */
+    private static BitSet blanks(ByteBuffer payload)
+    {
+        ByteBuffer words = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        words.position(8);
+        words.limit(8 + 8 * payload.getInt(0));
+        return BitSet.valueOf(words);
+    }
+
+
+    /**
+     * Returns the values of a payload, from position 0 to the end of the values
+     */
+    private static ByteBuffer values(ByteBuffer payload, int rows, int bytes)
+    {
+        ByteBuffer values = payload.duplicate();
+        int start = 8 + 8 * payload.getInt(0);
+        values.position(start);
+        values.limit(start + bytes * rows);
+        return values.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Returns the dictionary of the payload of a string chunk
+     */
+    private static String[] dictionary(ByteBuffer payload, int rows)
+    {
+        ByteBuffer entries = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        entries.position(8 + 8 * payload.getInt(0) + 4 * rows);
+        String[] dictionary = new String[entries.getInt()];
+        for (int code = 0; code < dictionary.length; code++)
+            dictionary[code] = SegmentFile.readString(entries);
+        return dictionary;
+    }
+
+
+    /**
+     * Returns the payload of a chunk, inflating it if needed
+     */
+    private ByteBuffer payload(int block, String column)
+    {
+        int chunk = chunk(block, column);
+        int storedLength = buffer.getInt(chunk);
+        int rawLength = buffer.getInt(chunk + 4);
+        ByteBuffer stored = buffer.duplicate();
+        stored.position(chunk + SegmentFile.CHUNK_HEADER_BYTES);
+        stored.limit(chunk + SegmentFile.CHUNK_HEADER_BYTES + storedLength);
+        stored = stored.slice().asReadOnlyBuffer();
+        if (buffer.get(chunk + 8) != SegmentFile.CODEC_DEFLATE)
+            return stored.order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] compressed = new byte[storedLength];
+        stored.get(compressed);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressed);
+            if (inflater.inflate(raw) != rawLength)
+                throw new IllegalStateException("Truncated chunk in dataframe segment");
+        }
+        catch (DataFormatException e)
+        {
+            throw new IllegalStateException("Corrupted chunk in dataframe segment", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Reads the whole segment into a new dataframe
+     * @return a dataframe with the rows of the segment
+     */
+    public DataFrame toDataFrame()
+    {
+        DataFrame df = new DataFrame();
+        for (String name : columns())
+            df.put(name, new Series(readColumn(name)));
+        return df;
+    }
+
+
+    /**
+     * Reads a whole column into a new column. Each chunk is inflated once, if deflated
+     * @param name name of the column
+     * @return the values of the column
+     */
+    public Column readColumn(String name)
+    {
+        ColumnType type = getType(name);
+        if (type == ColumnType.EMPTY)
+            return new EmptyColumn(rows);
+        Column column = Columns.newColumn(type);
+        column.ensureCapacity(rows);
+        for (int block = 0; block < chunks.length; block++)
+        {
+            int count = countBlockRows(block);
+            ByteBuffer payload = payload(block, name);
+            BitSet blanks = blanks(payload);
+            switch (type)
+            {
+                case FLOAT:
+                {
+                    AbstractFloatColumn<?> floats = (AbstractFloatColumn<?>) column;
+                    FloatBuffer values = values(payload, count, 4).asFloatBuffer();
+                    for (int i = 0; i < count; i++)
+                        if (blanks.get(i))
+                            floats.addBlank();
+                        else
+                            floats.addFloat(values.get(i));
+                    break;
+                }
+                case DOUBLE:
+                {
+                    DoubleColumn doubles = (DoubleColumn) column;
+                    DoubleBuffer values = values(payload, count, 8).asDoubleBuffer();
+                    for (int i = 0; i < count; i++)
+                        if (blanks.get(i))
+                            doubles.addBlank();
+                        else
+                            doubles.addDouble(values.get(i));
+                    break;
+                }
+                case LONG:
+                {
+                    LongColumn longs = (LongColumn) column;
+                    LongBuffer values = values(payload, count, 8).asLongBuffer();
+                    for (int i = 0; i < count; i++)
+                        if (blanks.get(i))
+                            longs.addBlank();
+                        else
+                            longs.addLong(values.get(i));
+                    break;
+                }
+                case INT:
+                {
+                    IntColumn ints = (IntColumn) column;
+                    IntBuffer values = values(payload, count, 4).asIntBuffer();
+                    for (int i = 0; i < count; i++)
+                        if (blanks.get(i))
+                            ints.addBlank();
+                        else
+                            ints.addInt(values.get(i));
+                    break;
+                }
+                default:
+                {
+                    StringColumn strings = (StringColumn) column;
+                    String[] dictionary = dictionary(payload, count);
+                    int[] codes = new int[dictionary.length];
+                    for (int code = 0; code < codes.length; code++)
+                        codes[code] = strings.encode(dictionary[code]);
+                    IntBuffer values = values(payload, count, 4).asIntBuffer();
+                    for (int i = 0; i < count; i++)
+                    {
+                        int code = values.get(i);
+                        strings.addCode((code < 0)? -1 : codes[code]);
+                    }
+                }
+            }
+        }
+        return column;
+    }
+}
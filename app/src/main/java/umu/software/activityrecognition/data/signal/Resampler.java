@@ -0,0 +1,191 @@
+package umu.software.activityrecognition.data.signal;
+
+import java.util.Arrays;
+
+
+/**
+ * Resamples a stream of timestamped samples on a fixed-rate grid. Samples are buffered in
+ * primitive ring buffers until the grid points they contribute to have been emitted.
+ * Thread safe: samples are usually pushed by a listener thread and polled by an accumulator
+ */
+public class Resampler
+{
+    /**
+     * How values are computed at the grid points
+     */
+    public enum Interpolation
+    {
+        /**
+         * Value of the last sample not after the grid point
+         */
+        ZERO_ORDER_HOLD,
+        /**
+         * Linear interpolation between the samples around the grid point
+         */
+        LINEAR
+    }
+
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int width;
+    private final long period;
+    private final Interpolation interpolation;
+    private long maxGap = 0;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private float[] values;
+    private int head = 0;
+    private int count = 0;
+    private long nextTimestamp;
+
+
+    /**
+     * @param width number of values of each sample
+     * @param period period of the grid, in the unit of the timestamps
+     * @param interpolation how values are computed at the grid points
+     */
+    public Resampler(int width, long period, Interpolation interpolation)
+    {
+        if (period <= 0)
+            throw new IllegalArgumentException("The period must be positive");
+        this.width = width;
+        this.period = period;
+        this.interpolation = interpolation;
+        this.values = new float[INITIAL_CAPACITY * width];
+    }
+
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+
+    public long getPeriod()
+    {
+        return period;
+    }
+
+
+    /**
+     * Sets the maximum time between two samples. After a longer gap the grid restarts from the
+     * new sample, instead of emitting all the grid points of the gap at once
+     * @param gap the maximum gap, in the unit of the timestamps, or a non-positive number for no limit
+     */
+    public synchronized void setMaxGap(long gap)
+    {
+        maxGap = gap;
+    }
+
+
+    /**
+     * Buffers a sample. Samples not after the last buffered one are dropped
+     * @param timestamp timestamp of the sample
+     * @param sample values of the sample. Only the first getWidth() values are read, missing ones are NaN
+     */
+    public synchronized void push(long timestamp, float[] sample)
+    {
+        if (count > 0)
+        {
+            long last = timestamps[physical(count - 1)];
+            if (timestamp <= last)
+                return;
+            if (maxGap > 0 && timestamp - last > maxGap)
+                count = 0;
+        }
+        if (count == 0)
+            nextTimestamp = timestamp;
+        if (count == timestamps.length)
+            grow();
+
+        int position = physical(count);
+        timestamps[position] = timestamp;
+        int length = Math.min(width, sample.length);
+        System.arraycopy(sample, 0, values, position * width, length);
+        Arrays.fill(values, position * width + length, (position + 1) * width, Float.NaN);
+        count += 1;
+    }
+
+
+    /**
+     * Returns whether the next grid point can be computed, ie. a sample not before it was buffered
+     * @return whether poll() can be called
+     */
+    public synchronized boolean hasSample()
+    {
+        return count > 0 && timestamps[physical(count - 1)] >= nextTimestamp;
+    }
+
+
+    /**
+     * Computes the values at the next grid point and advances the grid
+     * @param out array receiving getWidth() values
+     * @return timestamp of the grid point
+     * @throws IllegalStateException if hasSample() is false
+     */
+    public synchronized long poll(float[] out)
+    {
+        if (!hasSample())
+            throw new IllegalStateException("No sample available for the next grid point");
+
+        // drop the samples before the last one not after nextTimestamp
+        while (count > 1 && timestamps[physical(1)] <= nextTimestamp)
+        {
+            head = physical(1);
+            count -= 1;
+        }
+
+        int before = physical(0);
+        long t0 = timestamps[before];
+        if (t0 == nextTimestamp || interpolation == Interpolation.ZERO_ORDER_HOLD)
+            System.arraycopy(values, before * width, out, 0, width);
+        else
+        {
+            int after = physical(1);
+            float alpha = (float) (nextTimestamp - t0) / (timestamps[after] - t0);
+            for (int i = 0; i < width; i++)
+            {
+                float v0 = values[before * width + i];
+                out[i] = v0 + alpha * (values[after * width + i] - v0);
+            }
+        }
+
+        long timestamp = nextTimestamp;
+        nextTimestamp += period;
+        return timestamp;
+    }
+
+
+    /**
+     * Drops all buffered samples and restarts the grid from the next pushed sample
+     */
+    public synchronized void clear()
+    {
+        head = 0;
+        count = 0;
+    }
+
+
+    private int physical(int index)
+    {
+        int position = head + index;
+        return (position >= timestamps.length)? position - timestamps.length : position;
+    }
+
+
+    private void grow()
+    {
+        long[] newTimestamps = new long[2 * timestamps.length];
+        float[] newValues = new float[2 * values.length];
+        for (int i = 0; i < count; i++)
+        {
+            int position = physical(i);
+            newTimestamps[i] = timestamps[position];
+            System.arraycopy(values, position * width, newValues, i * width, width);
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        head = 0;
+    }
+}
@@ -0,0 +1,318 @@
+package umu.software.activityrecognition.data.signal;
+
+import java.util.Arrays;
+
+import umu.software.activityrecognition.data.dataframe.RunningStatistics;
+
+
+/**
+ * Features of a sliding window over a multichannel signal. Mean, variance, energy, zero crossings,
+ * minimum, maximum and signal magnitude area are updated incrementally as samples enter and leave
+ * the window; the dominant FFT bins are computed once per hop on preallocated buffers. No memory
+ * is allocated after construction. Not thread safe
+ */
+public class WindowFeatures
+{
+    private static final String[] CHANNEL_FEATURES = {"mean", "var", "energy", "zc", "min", "max"};
+
+    private final int channels;
+    private final int length;
+    private final int hop;
+    private final int fftBins;
+
+    private final double[] window;
+    private int head = 0;
+    private int size = 0;
+    private int sinceLastHop = 0;
+
+    private final RunningStatistics[] statistics;
+    private final int[] zeroCrossings;
+    private double magnitudeSum = 0;
+    private int magnitudeCount = 0;
+
+    // FFT buffers, of the window length rounded up to a power of two
+    private final int fftSize;
+    private final double[] re;
+    private final double[] im;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+    private final int[] topBins;
+    private final double[] topMagnitudes;
+
+
+    /**
+     * @param channels number of values of each sample
+     * @param length number of samples of the window
+     * @param hop number of samples between two feature rows
+     * @param fftBins number of dominant FFT bins reported for each channel
+     */
+    public WindowFeatures(int channels, int length, int hop, int fftBins)
+    {
+        if (channels <= 0 || length <= 0 || hop <= 0)
+            throw new IllegalArgumentException("Channels, window length and hop must be positive");
+        this.channels = channels;
+        this.length = length;
+        this.hop = hop;
+        this.window = new double[channels * length];
+        this.statistics = new RunningStatistics[channels];
+        for (int c = 0; c < channels; c++)
+            statistics[c] = new RunningStatistics();
+        this.zeroCrossings = new int[channels];
+
+        int n = Integer.highestOneBit(length);
+        this.fftSize = (n < length)? n << 1 : n;
+        this.fftBins = Math.max(0, Math.min(fftBins, fftSize / 2));
+        this.re = new double[fftSize];
+        this.im = new double[fftSize];
+        this.cos = new double[fftSize / 2];
+        this.sin = new double[fftSize / 2];
+        for (int i = 0; i < fftSize / 2; i++)
+        {
+            cos[i] = Math.cos(-2 * Math.PI * i / fftSize);
+            sin[i] = Math.sin(-2 * Math.PI * i / fftSize);
+        }
+        this.reversed = new int[fftSize];
+        int bits = Integer.numberOfTrailingZeros(fftSize);
+        for (int i = 0; i < fftSize && bits > 0; i++)
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        this.topBins = new int[this.fftBins];
+        this.topMagnitudes = new double[this.fftBins];
+    }
+
+
+    public int getChannels()
+    {
+        return channels;
+    }
+
+
+    public int getLength()
+    {
+        return length;
+    }
+
+
+    public int getHop()
+    {
+        return hop;
+    }
+
+
+    /**
+     * Returns the number of features written by writeFeatures()
+     * @return the number of features
+     */
+    public int getFeatureCount()
+    {
+        return channels * (CHANNEL_FEATURES.length + 2 * fftBins) + 1;
+    }
+
+
+    /**
+     * Returns the names of the features, in the order they are written: for each channel
+     * '{channel}_mean', '{channel}_var', '{channel}_energy', '{channel}_zc', '{channel}_min',
+     * '{channel}_max', then '{channel}_fft_bin_{k}' and '{channel}_fft_mag_{k}' for each dominant
+     * bin, and finally 'sma'
+     * @param channelNames names of the channels
+     * @return the names of the features
+     */
+    public String[] getFeatureNames(String... channelNames)
+    {
+        String[] names = new String[getFeatureCount()];
+        int f = 0;
+        for (int c = 0; c < channels; c++)
+        {
+            for (String feature : CHANNEL_FEATURES)
+                names[f++] = String.format("%s_%s", channelNames[c], feature);
+            for (int k = 0; k < fftBins; k++)
+                names[f++] = String.format("%s_fft_bin_%s", channelNames[c], k);
+            for (int k = 0; k < fftBins; k++)
+                names[f++] = String.format("%s_fft_mag_%s", channelNames[c], k);
+        }
+        names[f] = "sma";
+        return names;
+    }
+
+
+    /**
+     * Adds a sample to the window, evicting the oldest one if the window is full
+     * @param sample the values of the sample, one per channel. NaN values are ignored by the features
+     * @return whether a feature row is due, ie. the window is full and hop samples were added since the last row
+     */
+    public boolean push(double[] sample)
+    {
+        int tail = (head + size) % length;
+        if (size == length)
+        {
+            evict();
+            tail = (head + size) % length;
+        }
+
+        int previous = (tail + length - 1) % length;
+        for (int c = 0; c < channels; c++)
+        {
+            double value = sample[c];
+            if (size > 0 && crosses(window[previous * channels + c], value))
+                zeroCrossings[c] += 1;
+            window[tail * channels + c] = value;
+            statistics[c].push(value);
+            if (!Double.isNaN(value))
+                magnitudeSum += Math.abs(value);
+        }
+        magnitudeCount += 1;
+        size += 1;
+        sinceLastHop += 1;
+
+        // the running sum is recomputed once per window to avoid the drift of the floating point updates
+        if (tail == length - 1)
+            sumMagnitudes();
+        return isFeatureRowDue();
+    }
+
+
+    /**
+     * Returns whether a feature row is due
+     * @return whether the window is full and hop samples were added since the last row
+     */
+    public boolean isFeatureRowDue()
+    {
+        return size == length && sinceLastHop >= hop;
+    }
+
+
+    private void evict()
+    {
+        int next = (head + 1) % length;
+        for (int c = 0; c < channels; c++)
+        {
+            double value = window[head * channels + c];
+            if (size > 1 && crosses(value, window[next * channels + c]))
+                zeroCrossings[c] -= 1;
+            statistics[c].evict(value);
+            if (!Double.isNaN(value))
+                magnitudeSum -= Math.abs(value);
+        }
+        magnitudeCount -= 1;
+        head = next;
+        size -= 1;
+    }
+
+
+    private void sumMagnitudes()
+    {
+        magnitudeSum = 0;
+        for (int i = 0; i < size; i++)
+        {
+            int offset = ((head + i) % length) * channels;
+            for (int c = 0; c < channels; c++)
+                if (!Double.isNaN(window[offset + c]))
+                    magnitudeSum += Math.abs(window[offset + c]);
+        }
+    }
+
+
+    private static boolean crosses(double previous, double value)
+    {
+        return (previous < 0 && value >= 0) || (previous >= 0 && value < 0);
+    }
+
+
+    /**
+     * Writes the features of the current window and starts a new hop
+     * @param out array of at least getFeatureCount() values, filled in the order of getFeatureNames()
+     */
+    public void writeFeatures(double[] out)
+    {
+        int f = 0;
+        for (int c = 0; c < channels; c++)
+        {
+            RunningStatistics s = statistics[c];
+            double mean = s.getMean();
+            double variance = s.getVariance();
+            out[f++] = mean;
+            out[f++] = variance;
+            out[f++] = variance + mean * mean;
+            out[f++] = zeroCrossings[c];
+            out[f++] = s.getMin();
+            out[f++] = s.getMax();
+
+            if (fftBins > 0)
+            {
+                dominantBins(c, Double.isNaN(mean)? 0 : mean);
+                for (int k = 0; k < fftBins; k++)
+                    out[f++] = topBins[k];
+                for (int k = 0; k < fftBins; k++)
+                    out[f++] = topMagnitudes[k];
+            }
+        }
+        out[f] = (magnitudeCount == 0)? Double.NaN : magnitudeSum / magnitudeCount;
+        sinceLastHop = 0;
+    }
+
+
+    /**
+     * Computes the FFT of a channel without its mean and keeps the bins with the largest
+     * magnitudes, excluding the DC bin
+     */
+    private void dominantBins(int channel, double mean)
+    {
+        for (int i = 0; i < fftSize; i++)
+        {
+            double value = (i < size)? window[((head + i) % length) * channels + channel] : mean;
+            re[reversed[i]] = Double.isNaN(value)? 0 : value - mean;
+        }
+        Arrays.fill(im, 0);
+
+        for (int half = 1; half < fftSize; half <<= 1)
+        {
+            int step = fftSize / (half << 1);
+            for (int start = 0; start < fftSize; start += half << 1)
+                for (int j = 0; j < half; j++)
+                {
+                    int a = start + j;
+                    int b = a + half;
+                    double wr = cos[j * step];
+                    double wi = sin[j * step];
+                    double tr = wr * re[b] - wi * im[b];
+                    double ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+        }
+
+        Arrays.fill(topBins, 0);
+        Arrays.fill(topMagnitudes, -1);
+        for (int bin = 1; bin <= fftSize / 2; bin++)
+        {
+            double magnitude = Math.hypot(re[bin], im[bin]) / size;
+            int k = fftBins;
+            while (k > 0 && magnitude > topMagnitudes[k - 1])
+                k -= 1;
+            if (k == fftBins)
+                continue;
+            System.arraycopy(topBins, k, topBins, k + 1, fftBins - k - 1);
+            System.arraycopy(topMagnitudes, k, topMagnitudes, k + 1, fftBins - k - 1);
+            topBins[k] = bin;
+            topMagnitudes[k] = magnitude;
+        }
+    }
+
+
+    /**
+     * Empties the window
+     */
+    public void clear()
+    {
+        for (RunningStatistics s : statistics)
+            s.clear();
+        Arrays.fill(zeroCrossings, 0);
+        head = 0;
+        size = 0;
+        sinceLastHop = 0;
+        magnitudeSum = 0;
+        magnitudeCount = 0;
+    }
+}
@@ -3,6 +3,8 @@ package umu.software.activityrecognition.data.suppliers;
 import java.util.function.Consumer;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Schema;
+import umu.software.activityrecognition.data.dataframe.SlotRow;
 
 
 /**
@@ -25,6 +27,10 @@ public class DataPipe implements DataSupplier
         public Builder then(DataSupplier supplier)
         {
             pipe = new DataPipe(pipe){
+                Schema lastFirst;
+                Schema lastSecond;
+                Schema merged;
+
                 @Override
                 public void accept(DataFrame.Row row)
                 {
@@ -32,6 +38,29 @@ public class DataPipe implements DataSupplier
                     supplier.accept(row);
                 }
 
+                @Override
+                public Schema getSchema()
+                {
+                    Schema first = super.getSchema();
+                    Schema second = supplier.getSchema();
+                    if (first == null || second == null)
+                        return null;
+                    if (first != lastFirst || second != lastSecond)
+                    {
+                        merged = Schema.merge(first, second);
+                        lastFirst = first;
+                        lastSecond = second;
+                    }
+                    return merged;
+                }
+
+                @Override
+                public void accept(SlotRow row)
+                {
+                    super.accept(row);
+                    supplier.accept(row);
+                }
+
                 @Override
                 public void initialize()
                 {
@@ -64,6 +93,13 @@ public class DataPipe implements DataSupplier
                     super.accept(row);
                     supplier.accept(row);
                 }
+
+                @Override
+                public Schema getSchema()
+                {
+                    // the consumer works on map-based rows, whose columns are not known in advance
+                    return null;
+                }
             };
             return this;
         }
@@ -113,6 +149,27 @@ public class DataPipe implements DataSupplier
         supplier.accept(row);
     }
 
+    @Override
+    public Schema getSchema()
+    {
+        return supplier.getSchema();
+    }
+
+    /**
+     * Rows are driven by the first supplier of the pipe, the others only add to them
+     */
+    @Override
+    public boolean hasPendingRows()
+    {
+        return supplier.hasPendingRows();
+    }
+
+    @Override
+    public void accept(SlotRow row)
+    {
+        supplier.accept(row);
+    }
+
 
     /**
      * Start constructing a DataPipe through a builder
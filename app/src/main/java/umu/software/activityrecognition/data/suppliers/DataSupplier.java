@@ -4,6 +4,8 @@ import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Schema;
+import umu.software.activityrecognition.data.dataframe.SlotRow;
 
 /**
  * Supplier of data in the form of Dataframe.Row
@@ -31,9 +33,45 @@ public interface DataSupplier extends Consumer<DataFrame.Row>
     boolean isReady();
 
 
+    /**
+     * Returns whether, after a row was read, more rows are ready to be read right away. Suppliers
+     * producing rows at their own rate, eg. resampled sensors, use it to hand over all the rows
+     * produced since the previous reading
+     * @return whether more rows are ready
+     */
+    default boolean hasPendingRows()
+    {
+        return false;
+    }
+
+
     /**
      * Performs disposal operations if necessary. The supplier has to be ready again after initialize()
      */
     void dispose();
 
+
+    /**
+     * Returns the fixed schema of the rows produced by the supplier. Suppliers with a schema are
+     * read through accept(SlotRow), avoiding the construction of a map for each row
+     * @return the schema of the produced rows, or null if the columns are not known in advance
+     */
+    default Schema getSchema()
+    {
+        return null;
+    }
+
+
+    /**
+     * Fills a row of the supplier's schema. The default implementation goes through accept(Row)
+     * and drops the columns outside of the schema
+     * @param row the row to fill, of the schema returned by getSchema()
+     */
+    default void accept(SlotRow row)
+    {
+        DataFrame.Row r = new DataFrame.Row();
+        accept(r);
+        row.copyFrom(r);
+    }
+
 }
@@ -0,0 +1,88 @@
+package umu.software.activityrecognition.data.suppliers.impl;
+
+import java.util.function.Supplier;
+
+import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Schema;
+import umu.software.activityrecognition.data.dataframe.SlotRow;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.suppliers.DataSupplier;
+
+
+/**
+ * Supplier writing a single column, whose value is read from a supplier on every row (eg. the
+ * label of a recording). The column is declared in the schema, so a pipe ending with this stage
+ * keeps the SlotRow path of the suppliers before it
+ */
+public class ColumnSupplier implements DataSupplier
+{
+    private final String column;
+    private final Supplier<?> value;
+    private final Schema schema;
+
+    private Schema rowSchema;
+    private int slot = -1;
+
+
+    /**
+     *
+     * @param column name of the column
+     * @param type type of the column
+     * @param value supplier of the value written on each row
+     */
+    public ColumnSupplier(String column, ColumnType type, Supplier<?> value)
+    {
+        this.column = column;
+        this.value = value;
+        this.schema = Schema.builder().add(column, type).build();
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return column;
+    }
+
+    @Override
+    public void initialize()
+    {
+
+    }
+
+    @Override
+    public boolean isReady()
+    {
+        return true;
+    }
+
+    @Override
+    public void dispose()
+    {
+
+    }
+
+    @Override
+    public Schema getSchema()
+    {
+        return schema;
+    }
+
+    @Override
+    public void accept(DataFrame.Row row)
+    {
+        row.put(column, value.get());
+    }
+
+    @Override
+    public void accept(SlotRow row)
+    {
+        if (row.getSchema() != rowSchema)
+        {
+            slot = row.getSchema().indexOf(column);
+            rowSchema = row.getSchema();
+        }
+        if (slot >= 0)
+            row.setObject(slot, value.get());
+    }
+}
@@ -0,0 +1,286 @@
+package umu.software.activityrecognition.data.suppliers.impl;
+
+import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Schema;
+import umu.software.activityrecognition.data.dataframe.SlotRow;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.dataframe.columns.Columns;
+import umu.software.activityrecognition.data.signal.WindowFeatures;
+import umu.software.activityrecognition.data.suppliers.DataSupplier;
+
+/**
+ * Supplier of the features of a sliding window over the rows of another supplier. Source rows
+ * are pulled as soon as they are ready and fed to a WindowFeatures engine; a feature row is
+ * produced every hop rows, once the window is full. Rows hold the features of WindowFeatures
+ * and the key of the last row of the window
+ */
+public class FeatureSupplier implements DataSupplier
+{
+    public static final String DEFAULT_KEY = "sensor_event_timestamp";
+
+
+    /**
+     * FeatureSupplier builder
+     */
+    public static class Builder
+    {
+        private final DataSupplier source;
+        private String[] columns;
+        private String key = DEFAULT_KEY;
+        private int length = 128;
+        private int hop = 64;
+        private int fftBins = 3;
+
+        private Builder(DataSupplier source)
+        {
+            this.source = source;
+        }
+
+        /**
+         * Sets the numeric columns of the source rows the features are computed on
+         * @param columns names of the columns
+         * @return this builder
+         */
+        public Builder withColumns(String... columns)
+        {
+            this.columns = columns;
+            return this;
+        }
+
+        /**
+         * Sets the key column copied from the last row of each window. Default is DEFAULT_KEY
+         * @param column name of the key column, or null to not copy any key
+         * @return this builder
+         */
+        public Builder withKey(String column)
+        {
+            this.key = column;
+            return this;
+        }
+
+        /**
+         * Sets the number of rows of the window. Default is 128
+         * @param length number of rows of the window
+         * @return this builder
+         */
+        public Builder withWindowLength(int length)
+        {
+            this.length = length;
+            return this;
+        }
+
+        /**
+         * Sets the number of source rows between two feature rows. Default is 64
+         * @param hop number of rows between two feature rows
+         * @return this builder
+         */
+        public Builder withHop(int hop)
+        {
+            this.hop = hop;
+            return this;
+        }
+
+        /**
+         * Sets the number of dominant FFT bins reported for each column. Default is 3
+         * @param bins number of bins
+         * @return this builder
+         */
+        public Builder withFftBins(int bins)
+        {
+            this.fftBins = bins;
+            return this;
+        }
+
+        public FeatureSupplier build()
+        {
+            if (columns == null || columns.length == 0)
+                throw new IllegalStateException("The columns of the features must be set");
+            return new FeatureSupplier(this);
+        }
+    }
+
+
+    private final DataSupplier source;
+    private final String[] columns;
+    private final String key;
+    private final WindowFeatures features;
+    private final Schema schema;
+    private final int keySlot;
+
+    private final double[] sample;
+    private final double[] values;
+    private long lastKey;
+    private boolean rowReady = false;
+    private boolean drained = false;
+
+    // source rows are read through a reused slot row when the source has a schema
+    private Schema sourceSchema;
+    private SlotRow sourceRow;
+    private int[] sourceSlots;
+    private int sourceKeySlot;
+    private final DataFrame.Row mapRow = new DataFrame.Row();
+
+    private Schema rowSchema;
+    private int[] slots;
+
+
+    private FeatureSupplier(Builder builder)
+    {
+        this.source = builder.source;
+        this.columns = builder.columns.clone();
+        this.key = builder.key;
+        this.features = new WindowFeatures(columns.length, builder.length, builder.hop, builder.fftBins);
+        this.sample = new double[columns.length];
+        this.values = new double[features.getFeatureCount()];
+
+        Schema.Builder schemaBuilder = Schema.builder();
+        for (String name : features.getFeatureNames(columns))
+            schemaBuilder.add(name, ColumnType.DOUBLE);
+        if (key != null)
+            schemaBuilder.add(key, ColumnType.LONG);
+        this.schema = schemaBuilder.build();
+        this.keySlot = (key != null)? schema.indexOf(key) : -1;
+    }
+
+
+    /**
+     * Start constructing a FeatureSupplier through a builder
+     * @param source supplier of the rows the features are computed on
+     * @return a supplier builder
+     */
+    public static Builder builder(DataSupplier source)
+    {
+        return new Builder(source);
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return String.format("%s_features", source.getName());
+    }
+
+    @Override
+    public void initialize()
+    {
+        source.initialize();
+    }
+
+    @Override
+    public boolean isReady()
+    {
+        // a new reading: the source may have produced new rows since the last one
+        drained = false;
+        return advance();
+    }
+
+    @Override
+    public boolean hasPendingRows()
+    {
+        return advance();
+    }
+
+    @Override
+    public void dispose()
+    {
+        source.dispose();
+        features.clear();
+        rowReady = false;
+    }
+
+    @Override
+    public Schema getSchema()
+    {
+        return schema;
+    }
+
+
+    /**
+     * Pulls source rows until a feature row is ready or the source has no more rows for this reading
+     * @return whether a feature row is ready
+     */
+    private boolean advance()
+    {
+        while (!rowReady && !drained && source.isReady())
+        {
+            readSource();
+            drained = !source.hasPendingRows();
+            if (features.push(sample))
+            {
+                features.writeFeatures(values);
+                rowReady = true;
+            }
+        }
+        return rowReady;
+    }
+
+
+    private void readSource()
+    {
+        Schema s = source.getSchema();
+        if (s == null)
+        {
+            mapRow.clear();
+            source.accept(mapRow);
+            for (int i = 0; i < columns.length; i++)
+                sample[i] = Columns.toDouble(mapRow.get(columns[i]));
+            if (key != null)
+            {
+                Object k = mapRow.get(key);
+                lastKey = (k instanceof Number)? ((Number) k).longValue() : lastKey;
+            }
+            return;
+        }
+
+        if (s != sourceSchema)
+        {
+            sourceSchema = s;
+            sourceRow = s.newRow();
+            sourceSlots = new int[columns.length];
+            for (int i = 0; i < columns.length; i++)
+                sourceSlots[i] = s.indexOf(columns[i]);
+            sourceKeySlot = (key != null)? s.indexOf(key) : -1;
+        }
+        sourceRow.clear();
+        source.accept(sourceRow);
+        for (int i = 0; i < columns.length; i++)
+            sample[i] = (sourceSlots[i] >= 0)? sourceRow.getDouble(sourceSlots[i]) : Double.NaN;
+        if (sourceKeySlot >= 0)
+            lastKey = sourceRow.getLong(sourceKeySlot, lastKey);
+    }
+
+
+    @Override
+    public void accept(SlotRow row)
+    {
+        if (!advance())
+            return;
+        rowReady = false;
+        if (row.getSchema() != rowSchema)
+        {
+            // the row may be of a larger schema, eg. when the supplier is part of a pipe
+            slots = new int[schema.size()];
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = row.getSchema().indexOf(schema.getName(i));
+            rowSchema = row.getSchema();
+        }
+        for (int i = 0; i < values.length; i++)
+            if (slots[i] >= 0)
+                row.setDouble(slots[i], values[i]);
+        if (keySlot >= 0 && slots[keySlot] >= 0)
+            row.setLong(slots[keySlot], lastKey);
+    }
+
+
+    @Override
+    public void accept(DataFrame.Row row)
+    {
+        if (!advance())
+            return;
+        rowReady = false;
+        for (int i = 0; i < values.length; i++)
+            row.put(schema.getName(i), values[i]);
+        if (keySlot >= 0)
+            row.put(key, lastKey);
+    }
+}
@@ -6,19 +6,67 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import umu.software.activityrecognition.data.dataframe.DataFrame;
+import umu.software.activityrecognition.data.dataframe.Schema;
+import umu.software.activityrecognition.data.dataframe.SlotRow;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
+import umu.software.activityrecognition.data.signal.Resampler;
 import umu.software.activityrecognition.data.suppliers.DataSupplier;
 
+/**
+ * Supplier of the readings of a sensor. By default each row holds the last received event.
+ * Resampling suppliers instead buffer all events and produce rows on a fixed-rate grid of event
+ * timestamps, independently of how often they are read
+ */
 public class SensorEventSupplier implements DataSupplier, SensorEventListener
 {
+    /** Column of the events' timestamps, in nanoseconds */
+    public static final String TIMESTAMP_COLUMN = "sensor_event_timestamp";
+
+    private static final int ACCURACY = 0;
+    private static final int SENSOR_NAME = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int FIRST_VALUE = 3;
+
+    private static String[] valueColumns = new String[0];
 
     private final SensorManager sensorManager;
     private final Sensor sensor;
     private SensorEvent lastReceivedEvent;
+    private final long samplingPeriodNanos;
+    private final Resampler.Interpolation interpolation;
+    private volatile Resampler resampler;
+    private volatile int lastAccuracy;
+
+    // sample read by the last call to readSample()
+    private int sampleAccuracy;
+    private long sampleTimestamp;
+    private float[] sampleValues = new float[0];
+    private int sampleLength;
+
+    private Schema schema;
+    private Schema rowSchema;
+    private Schema slotsSchema;
+    private int[] slots;
 
     public SensorEventSupplier(SensorManager sensorManager, Sensor sensor)
+    {
+        this(sensorManager, sensor, 0, Resampler.Interpolation.ZERO_ORDER_HOLD);
+    }
+
+    /**
+     * Creates a resampling supplier
+     * @param sensorManager the sensor manager
+     * @param sensor the sensor to read
+     * @param samplingPeriodNanos period of the rows, in nanoseconds of the events' timestamps.
+     *                            If not positive the supplier does not resample
+     * @param interpolation how values are computed at the sampling times
+     */
+    public SensorEventSupplier(SensorManager sensorManager, Sensor sensor, long samplingPeriodNanos, Resampler.Interpolation interpolation)
     {
         this.sensorManager = sensorManager;
         this.sensor = sensor;
+        this.samplingPeriodNanos = samplingPeriodNanos;
+        this.interpolation = interpolation;
     }
 
     @Override
@@ -30,41 +78,172 @@ public class SensorEventSupplier implements DataSupplier, SensorEventListener
     @Override
     public void initialize()
     {
-        sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+        if (isResampling())
+            // request events at the resampling rate, in microseconds
+            sensorManager.registerListener(this, sensor, (int) Math.max(0, samplingPeriodNanos / 1000));
+        else
+            sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
     }
 
     @Override
     public boolean isReady()
     {
+        if (isResampling())
+        {
+            Resampler r = resampler;
+            return r != null && r.hasSample();
+        }
         return lastReceivedEvent != null;
     }
 
+    @Override
+    public boolean hasPendingRows()
+    {
+        return isResampling() && isReady();
+    }
+
     @Override
     public void dispose()
     {
         sensorManager.unregisterListener(this);
+        if (resampler != null)
+            resampler.clear();
+    }
+
+    /**
+     * Returns whether the supplier produces rows on a fixed-rate grid
+     * @return whether the supplier resamples the sensor's events
+     */
+    public boolean isResampling()
+    {
+        return samplingPeriodNanos > 0;
+    }
+
+    /**
+     * Reads the next sample, ie. the last received event or the next resampled one
+     * @return false if no sample is available
+     */
+    private boolean readSample()
+    {
+        if (isResampling())
+        {
+            Resampler r = resampler;
+            if (r == null || !r.hasSample())
+                return false;
+            if (sampleValues.length < r.getWidth())
+                sampleValues = new float[r.getWidth()];
+            sampleTimestamp = r.poll(sampleValues);
+            sampleAccuracy = lastAccuracy;
+            sampleLength = r.getWidth();
+            return true;
+        }
+
+        SensorEvent event = lastReceivedEvent;
+        if (event == null)
+            return false;
+        if (sampleValues.length < event.values.length)
+            sampleValues = new float[event.values.length];
+        System.arraycopy(event.values, 0, sampleValues, 0, event.values.length);
+        sampleTimestamp = event.timestamp;
+        sampleAccuracy = event.accuracy;
+        sampleLength = event.values.length;
+        return true;
     }
 
     @Override
     public void accept(DataFrame.Row r)
     {
-        if(lastReceivedEvent == null)
+        if (!readSample())
+            return;
+
+        r.put("accuracy", sampleAccuracy);
+        r.put("sensor_name", sensor.getName());
+        r.put(TIMESTAMP_COLUMN, sampleTimestamp);
+
+        String[] columns = valueColumns(sampleLength);
+        for (int i = 0; i < sampleLength; i++)
+            r.put(columns[i], sampleValues[i]);
+    }
+
+    /**
+     * Returns the schema of the rows, built once the number of values of the sensor's events is known
+     * @return the schema of the rows, or null if no event was received yet
+     */
+    @Override
+    public Schema getSchema()
+    {
+        SensorEvent event = lastReceivedEvent;
+        if (event == null)
+            return null;
+        if (schema == null || schema.size() != FIRST_VALUE + event.values.length)
+        {
+            Schema.Builder builder = Schema.builder()
+                    .add("accuracy", ColumnType.INT)
+                    .add("sensor_name", ColumnType.STRING)
+                    .add(TIMESTAMP_COLUMN, ColumnType.LONG);
+            for (String column : valueColumns(event.values.length))
+                builder.add(column, ColumnType.FLOAT);
+            schema = builder.build();
+        }
+        return schema;
+    }
+
+    @Override
+    public void accept(SlotRow row)
+    {
+        Schema schema = getSchema();
+        if (schema == null || !readSample())
             return;
+        if (row.getSchema() != rowSchema || schema != slotsSchema)
+        {
+            // the row may be of a larger schema, eg. when the supplier is part of a pipe
+            slots = new int[schema.size()];
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = row.getSchema().indexOf(schema.getName(i));
+            rowSchema = row.getSchema();
+            slotsSchema = schema;
+        }
 
-        r.put("accuracy", lastReceivedEvent.accuracy);
-        r.put("sensor_name", lastReceivedEvent.sensor.getName());
-        r.put("sensor_event_timestamp", lastReceivedEvent.timestamp);
+        if (slots[ACCURACY] >= 0)
+            row.setInt(slots[ACCURACY], sampleAccuracy);
+        if (slots[SENSOR_NAME] >= 0)
+            row.setObject(slots[SENSOR_NAME], sensor.getName());
+        if (slots[TIMESTAMP] >= 0)
+            row.setLong(slots[TIMESTAMP], sampleTimestamp);
+        int length = Math.min(sampleLength, slots.length - FIRST_VALUE);
+        for (int i = 0; i < length; i++)
+            if (slots[FIRST_VALUE + i] >= 0)
+                row.setFloat(slots[FIRST_VALUE + i], sampleValues[i]);
+    }
 
-        for (int i = 0; i < lastReceivedEvent.values.length; i++)
+    /**
+     * Returns the names of the value columns, ie. f_0, f_1, ...
+     * @param count number of values
+     * @return array with at least count names
+     */
+    private static synchronized String[] valueColumns(int count)
+    {
+        if (valueColumns.length < count)
         {
-            String colname = String.format("f_%s", i);
-            r.put(colname, lastReceivedEvent.values[i]);
+            String[] columns = new String[count];
+            for (int i = 0; i < count; i++)
+                columns[i] = String.format("f_%s", i);
+            valueColumns = columns;
         }
+        return valueColumns;
     }
 
     @Override
     public void onSensorChanged(SensorEvent sensorEvent)
     {
+        if (isResampling())
+        {
+            // events may be reused by the framework: the resampler copies their values
+            if (resampler == null || resampler.getWidth() != sensorEvent.values.length)
+                resampler = new Resampler(sensorEvent.values.length, samplingPeriodNanos, interpolation);
+            resampler.push(sensorEvent.timestamp, sensorEvent.values);
+            lastAccuracy = sensorEvent.accuracy;
+        }
         lastReceivedEvent = sensorEvent;
     }
 
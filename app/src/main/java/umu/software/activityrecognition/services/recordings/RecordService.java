@@ -15,36 +15,40 @@ import androidx.lifecycle.LifecycleObserver;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
-import java.io.OutputStreamWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import umu.software.activityrecognition.R;
 import umu.software.activityrecognition.data.accumulators.AccumulatorsMap;
 import umu.software.activityrecognition.data.accumulators.DataAccumulator;
 import umu.software.activityrecognition.data.accumulators.DataAccumulatorFactory;
+import umu.software.activityrecognition.data.accumulators.MemoryPolicies;
+import umu.software.activityrecognition.data.accumulators.RecordingLog;
+import umu.software.activityrecognition.data.dataframe.columns.ColumnType;
 import umu.software.activityrecognition.data.suppliers.DataPipe;
 import umu.software.activityrecognition.data.suppliers.DataSupplier;
-import umu.software.activityrecognition.data.persistence.DataFrameWriterFactory;
+import umu.software.activityrecognition.data.suppliers.impl.ColumnSupplier;
 import umu.software.activityrecognition.preferences.RecordServicePreferences;
 import umu.software.activityrecognition.shared.lifecycles.ExclusiveResourceLifecycle;
 import umu.software.activityrecognition.shared.persistance.Directories;
+import umu.software.activityrecognition.shared.persistance.IDirectory;
 import umu.software.activityrecognition.shared.resourceaccess.ExclusiveResource;
 import umu.software.activityrecognition.shared.services.ServiceBinder;
 import umu.software.activityrecognition.shared.preferences.Preference;
 import umu.software.activityrecognition.shared.util.AndroidUtils;
+import umu.software.activityrecognition.shared.util.Exceptions;
 import umu.software.activityrecognition.shared.util.RepeatingBroadcast;
 import umu.software.activityrecognition.shared.util.UniqueId;
 import umu.software.activityrecognition.shared.lifecycles.ForegroundServiceLifecycle;
 import umu.software.activityrecognition.shared.lifecycles.LifecycleDelegateObserver;
 import umu.software.activityrecognition.shared.services.LifecycleService;
 import umu.software.activityrecognition.shared.lifecycles.WakeLockLifecycle;
-import umu.software.activityrecognition.data.dataframe.DataFrame;
 import umu.software.activityrecognition.tflite.TFLiteNamedModels;
 
 
@@ -89,6 +93,16 @@ public class RecordService extends LifecycleService
 
 
 
+    /** Memory of each accumulator's dataframe above which its rows are spilled to the cache directory */
+    private static final long SPILL_MEMORY_BUDGET_BYTES = 8L << 20;
+    /** Memory of all accumulators above which models are paused and the recording is saved early */
+    private static final long GLOBAL_MEMORY_BUDGET_BYTES = 48L << 20;
+    /** Period between two writes of the recorded rows to the recording log, ie. the recording lost if the process dies */
+    private static final long LOG_FLUSH_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    /** Period between two compactions of the recording log into segment files */
+    private static final long LOG_SEAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+
     private LifecycleObserver mWakeLockLifecycle;
     private ForegroundServiceLifecycle mFregroundLifecycle;
     private AccumulatorsMap mAccumulators;
@@ -98,6 +112,8 @@ public class RecordService extends LifecycleService
     private boolean mRecording = false;
     private String mLabel = null;
     private ExclusiveResourceLifecycle mTokensLifecycle;
+    private File mSpillDirectory;
+    private RecordingLog mLog;
 
 
     @Override
@@ -117,9 +133,28 @@ public class RecordService extends LifecycleService
         mRecording = false;
         mSaveRepeatingBroadcast = new RepeatingBroadcast(this);
         mAccumulators = new AccumulatorsMap();
+        mAccumulators.setMemoryBudget(GLOBAL_MEMORY_BUDGET_BYTES, MemoryPolicies.chain(
+                MemoryPolicies.pauseLowPriority(DataAccumulator.PRIORITY_LOW),
+                MemoryPolicies.earlySave(() -> {
+                    logger().w("Memory budget exceeded, saving the recording early");
+                    Intent saveIntent = new Intent(this, RecordService.class);
+                    saveIntent.setAction(ACTION_SAVE_ZIP_CLEAR);
+                    startService(saveIntent);
+                })
+        ));
         getLifecycle().addObserver(new LifecycleDelegateObserver(mAccumulators.getLifecycle()));
         mPreferences = new RecordServicePreferences(this);
 
+        // segments left by a previous process are not reachable anymore
+        mSpillDirectory = new File(getCacheDir(), "spill");
+        File[] staleSegments = mSpillDirectory.listFiles();
+        if (staleSegments != null)
+            for (File f : staleSegments)
+                f.delete();
+
+        // logs left by a process that died are compacted and saved with the next recording
+        mLog = new RecordingLog(mAccumulators, new File(getFilesDir(), "recording_log"));
+
         mWakeLockLifecycle = WakeLockLifecycle.newPartialWakeLock(this);
 
 
@@ -188,7 +223,9 @@ public class RecordService extends LifecycleService
         onStopRecurrentSave(null);
         stopForeground(true);
         stopSelf();
+        mLog.close();
         mAccumulators.clear();
+        mAccumulators.setMemoryBudget(0, null);
         mPreferences.clearListeners();
         logger().i("Service destroyed");
     }
@@ -223,6 +260,7 @@ public class RecordService extends LifecycleService
         mRecording = true;
         mPreferences.clearListeners();
         mAccumulators.clear();
+        mLog.start(LOG_FLUSH_MILLIS, LOG_SEAL_MILLIS);
 
         Preference<Boolean> useWakeLock = mPreferences.useWakeLock();
         Preference<Integer> sensorsMinDelayMillis = mPreferences.sensorsReadingsDelayMillis();
@@ -305,9 +343,10 @@ public class RecordService extends LifecycleService
         unregisterSensor(s, listeners);
 
         DataAccumulator acc = factory.newSensor(s, pipe -> {
-            pipe.then(row -> row.put("label", mLabel));
+            pipe.then(newLabelSupplier());
         });
         acc.setDelayMillis(sensorsMinDelayMillis.get());
+        acc.setMemoryBudget(SPILL_MEMORY_BUDGET_BYTES, mSpillDirectory);
 
         Consumer<Preference<Integer>> cbk = p -> acc.setDelayMillis(p.get());
         listeners.put(s, cbk);
@@ -339,10 +378,12 @@ public class RecordService extends LifecycleService
 
         DataSupplier supp = DataPipe
                 .startWith(model.newDataSupplier(this))
-                .then(row -> row.put("label", mLabel))
+                .then(newLabelSupplier())
                 .build();
         DataAccumulator accum = new DataAccumulator(supp);
         accum.setDelayMillis(modelsMinDelayMillis.get());
+        accum.setMemoryBudget(SPILL_MEMORY_BUDGET_BYTES, mSpillDirectory);
+        accum.setPriority(DataAccumulator.PRIORITY_LOW);
 
         Consumer<Preference<Integer>> cbk = p -> accum.setDelayMillis(p.get());
         listeners.put(model, cbk);
@@ -378,6 +419,12 @@ public class RecordService extends LifecycleService
     }
 
 
+    private DataSupplier newLabelSupplier()
+    {
+        return new ColumnSupplier("label", ColumnType.STRING, () -> mLabel);
+    }
+
+
     /* ----------- END Helper functions to register/unregister sensors and models ---------------- */
 
 
@@ -392,43 +439,45 @@ public class RecordService extends LifecycleService
             return;
 
         String saveDirectory = mPreferences.saveFolderPath().get();
-        List<DataFrame> dataframes = getDataFrames();
-        List<String> fileNames = dataframes.stream().map(df -> df.getName() + ".csv").collect(Collectors.toList());
-
 
-        clearDataFrames();
-        runAsync(() -> {
+        // the log takes the last rows and clears the accumulators, then saves on its writer thread
+        mLog.archive(true, segments -> {
+            Map<String, IDirectory.CheckedFunction<OutputStream, Void>> entries = Maps.newLinkedHashMap();
+            for (Map.Entry<String, List<File>> e : segments.entrySet())
+                entries.put(e.getKey() + ".csv", os -> {
+                    RecordingLog.writeCsv(e.getValue(), os);
+                    return null;
+                });
 
             boolean result = Directories.peformOnDirectory(
                     saveDirectory,
                     null,
                     dir -> {
-                        Function<DataFrame, String> dataframeWriter = DataFrameWriterFactory.newToCSV(true, ",");
-
-                        dir.delete(fileNames::contains);
-
-                        for (int i = 0; i < dataframes.size(); i++)
+                        String zipName = String.format("%s.zip", dir.listFileNames(fn -> !fn.startsWith(".") && fn.endsWith(".zip")).size());
+                        int written = -1;
+                        try
                         {
-                            int j = i;
-                            dir.writeToFile(
-                                    fileNames.get(i),
-                                    os -> {
-                                        OutputStreamWriter osw = new OutputStreamWriter(os);
-                                        String dfString = dataframeWriter.apply(dataframes.get(j));
-                                        osw.write(dfString);
-                                        osw.close();
-                                        return null;
-                                    });
+                            written = Directories.writeZip(dir, zipName, entries);
                         }
-
-                        String zipName = String.format("%s.zip", dir.listFileNames(fn -> !fn.startsWith(".") && fn.endsWith(".zip")).size());
-                        Directories.createZip(dir, zipName, fileNames);
-                        dir.delete(fileNames::contains);
+                        finally
+                        {
+                            // a failed entry is truncated in the zip: remove it and keep the segments
+                            if (written < entries.size())
+                                Exceptions.runCatch(() -> dir.delete(zipName::equals));
+                        }
+                        if (written < entries.size())
+                            throw new IOException(String.format("Saved %s of %s files into %s", written, entries.size(), zipName));
                         return null;
                     });
 
-            logger().i("Dataframe save: %s", (result)? "success" : "FAILURE");
-
+            // failed saves keep the segments for the next one
+            if (!result)
+                throw new IOException(String.format("Cannot save the recording into %s", saveDirectory));
+        }).whenComplete((archived, error) -> {
+            if (error != null)
+                logger().e("Dataframe save: FAILURE (%s)", error.getMessage());
+            else
+                logger().i("Dataframe save: %s", (archived)? "success" : "FAILURE");
         });
     }
 
@@ -484,15 +533,6 @@ public class RecordService extends LifecycleService
     }
 
 
-    /**
-     * Fetches dataframes from the accumulator manager
-     * @return collection of dataframes
-     */
-    private List<DataFrame> getDataFrames()
-    {
-        return mAccumulators.getDataFrames();
-    }
-
     /**
      * Clear accumulated dataframes
      */
@@ -3,19 +3,22 @@ package umu.software.activityrecognition.shared.asynctasks;
 import android.os.AsyncTask;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+
+import umu.software.activityrecognition.shared.persistance.Directories;
+import umu.software.activityrecognition.shared.persistance.ParallelZipArchiver;
 
 
 /**
- * AsyncTask to zip files
+ * AsyncTask to zip files. Files are compressed in parallel (see ParallelZipArchiver)
  * @param <T>
  */
 public abstract class ZipAsyncTask<T> extends AsyncTask<T, Boolean, Integer>
@@ -57,27 +60,22 @@ public abstract class ZipAsyncTask<T> extends AsyncTask<T, Boolean, Integer>
     }
 
 
-    public boolean processFile(ZipOutputStream out, String fileName)
+    /**
+     * Returns the number of workers compressing the files
+     * @return the number of workers compressing the files
+     */
+    protected int getThreads()
     {
-        FileInputStream fi;
-        BufferedInputStream origin;
-        byte[] data = new byte[bufferSize];
+        return Runtime.getRuntime().availableProcessors();
+    }
 
-        try
-        {
-            fi = new FileInputStream(fileName);
-            origin = new BufferedInputStream(fi, bufferSize);
 
+    public boolean processFile(ParallelZipArchiver out, String fileName)
+    {
+        try (InputStream origin = new BufferedInputStream(new FileInputStream(fileName), bufferSize))
+        {
             String entryName = fileName.substring(fileName.lastIndexOf(File.separator) + 1);
-            ZipEntry entry = new ZipEntry(entryName);
-            out.putNextEntry(entry);
-            int count;
-            while ((count = origin.read(data, 0, bufferSize)) != -1)
-            {
-                out.write(data, 0, count);
-            }
-
-            origin.close();
+            out.putEntry(entryName, origin);
         } catch (IOException e) {
             e.printStackTrace();
             return false;
@@ -93,29 +91,34 @@ public abstract class ZipAsyncTask<T> extends AsyncTask<T, Boolean, Integer>
             return 0;
         }
 
-        ZipOutputStream out;
         String fileName = getOutputFileName();
-        try {
+        try
+        {
             Files.createDirectories(Paths.get(fileName).getParent().toAbsolutePath());
-            out = new ZipOutputStream(new FileOutputStream(fileName));
-        } catch (Exception e)
+        }
+        catch (Exception e)
         {
             e.printStackTrace();
             return -1;
         }
 
         int result = 0;
-        for (T input : inputs)
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(fileName), bufferSize);
+             ParallelZipArchiver out = Directories.newZipArchiver(os, getThreads()))
         {
-            String file = getInputFilePath(input);
-            boolean success = filterInput(input) && processFile(out, file);
-            result += success? 1 : 0;
+            for (T input : inputs)
+            {
+                String file = getInputFilePath(input);
+                boolean success = filterInput(input) && processFile(out, file);
+                result += success? 1 : 0;
+            }
         }
-
-        try {
-            out.close();
-        } catch (IOException e) {
+        catch (IOException e)
+        {
             e.printStackTrace();
+            // the zip file could not be created or written
+            if (result == 0)
+                return -1;
         }
         return result;
     }
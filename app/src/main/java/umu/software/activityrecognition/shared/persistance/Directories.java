@@ -2,18 +2,20 @@ package umu.software.activityrecognition.shared.persistance;
 
 import androidx.annotation.Nullable;
 
+import com.google.common.collect.Maps;
+
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 import umu.software.activityrecognition.shared.persistance.impl.FileDirectory;
 import umu.software.activityrecognition.shared.persistance.impl.SSHJDirectory;
@@ -48,6 +50,15 @@ public class Directories
     }
 
 
+    // compression level of zip entries, by suffix of their name
+    private static final Map<String, Integer> ZIP_LEVELS = Maps.newConcurrentMap();
+
+    static
+    {
+        ZIP_LEVELS.put(".zip", Deflater.NO_COMPRESSION);
+    }
+
+
     private Directories() {}
 
 
@@ -218,7 +229,41 @@ public class Directories
     }
 
     /**
-     * Creates a zip file
+     * Sets the compression level of the zip entries whose name ends with the given suffix, for the
+     * zip files created from now on
+     * @param suffix suffix of the entry names, eg. ".csv"
+     * @param level compression level, from Deflater.NO_COMPRESSION to Deflater.BEST_COMPRESSION,
+     *              or Deflater.DEFAULT_COMPRESSION
+     */
+    public static void setZipCompressionLevel(String suffix, int level)
+    {
+        ZIP_LEVELS.put(suffix, level);
+    }
+
+
+    private static ParallelZipArchiver newZipArchiver(OutputStream os)
+    {
+        return newZipArchiver(os, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates an archiver applying the compression levels set with setZipCompressionLevel()
+     * @param os stream the zip file is written into. It is not closed by the archiver
+     * @param threads number of workers compressing the entries
+     * @return a new archiver
+     */
+    public static ParallelZipArchiver newZipArchiver(OutputStream os, int threads)
+    {
+        ParallelZipArchiver archiver = new ParallelZipArchiver(os, threads);
+        for (Map.Entry<String, Integer> e : ZIP_LEVELS.entrySet())
+            archiver.setLevel(e.getKey(), e.getValue());
+        return archiver;
+    }
+
+
+    /**
+     * Creates a zip file. Files are compressed in parallel (see ParallelZipArchiver)
      * @param dir source dir
      * @param zipFilename name of the zip file
      * @param files names of the files to zip
@@ -227,33 +272,56 @@ public class Directories
      */
     public static int createZip(IDirectory dir, String zipFilename, Collection<String> files) throws Exception
     {
-        int bufferSize = 16384;
-        byte[] data = new byte[bufferSize];
         AtomicInteger result = new AtomicInteger();
 
         if (!zipFilename.endsWith(".zip")) zipFilename += ".zip";
 
         dir.writeToFile(zipFilename, os -> {
-            ZipOutputStream zipOs = new ZipOutputStream(os);
-            for (String file : files)
+            try (ParallelZipArchiver archiver = newZipArchiver(os))
             {
-                int zipped = dir.readFromFile(
-                        file,
-                        is -> {
-                            ZipEntry entry = new ZipEntry(file);
-                            zipOs.putNextEntry(entry);
-                            boolean res = Exceptions.runCatch(() ->
-                            {
-                                int count;
-                                while ((count = is.read(data, 0, bufferSize)) != -1)
-                                    zipOs.write(data, 0, count);
+                for (String file : files)
+                {
+                    int zipped = dir.readFromFile(
+                            file,
+                            is -> {
+                                boolean res = Exceptions.runCatch(() -> archiver.putEntry(file, is));
+                                return (res) ? 1 : 0;
                             });
-                            return (res) ? 1 : 0;
-                        });
-                result.addAndGet(zipped);
+                    result.addAndGet(zipped);
+                }
             }
+            return null;
+        });
+
+        return result.get();
+    }
+
+
+    /**
+     * Creates a zip file whose entries are written directly into the archive, without intermediate
+     * files in the directory. Entries are compressed in parallel (see ParallelZipArchiver)
+     * @param dir target dir
+     * @param zipFilename name of the zip file
+     * @param entries writers of the entries, by entry name, in the order they are written. Closing
+     *                the stream given to a writer has no effect
+     * @return number of entries written without errors
+     * @throws Exception
+     */
+    public static int writeZip(IDirectory dir, String zipFilename, Map<String, IDirectory.CheckedFunction<OutputStream, Void>> entries) throws Exception
+    {
+        AtomicInteger result = new AtomicInteger();
+
+        if (!zipFilename.endsWith(".zip")) zipFilename += ".zip";
 
-            zipOs.close();
+        dir.writeToFile(zipFilename, os -> {
+            try (ParallelZipArchiver archiver = newZipArchiver(os))
+            {
+                for (Map.Entry<String, IDirectory.CheckedFunction<OutputStream, Void>> e : entries.entrySet())
+                {
+                    boolean res = Exceptions.runCatch(() -> archiver.putEntry(e.getKey(), e.getValue()));
+                    result.addAndGet((res) ? 1 : 0);
+                }
+            }
             return null;
         });
 
@@ -0,0 +1,518 @@
+package umu.software.activityrecognition.shared.persistance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Writes standard zip archives compressing entries on a bounded pool of workers. Entries are cut
+ * into blocks of BLOCK_SIZE bytes that are deflated independently, each primed with the last 32 KB
+ * of the previous block, and concatenated in order into a single deflate stream per entry. Blocks
+ * of consecutive entries are compressed at the same time, so both many small entries and a few
+ * large ones use all workers. At most two blocks per worker are held in memory.
+ * Entries are written with data descriptors and without zip64 extensions: archives are limited to
+ * 65535 entries and 4 GB. The archiver must be used by a single thread
+ */
+public class ParallelZipArchiver implements Closeable
+{
+    public static final int BLOCK_SIZE = 1 << 18;
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    private static final long MAX_ZIP_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ZIP_ENTRIES = 0xFFFF;
+    // bit 3: sizes and CRC in a data descriptor, bit 11: UTF-8 names
+    private static final int FLAGS = 0x0808;
+    private static final int VERSION = 20;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * A part of the archive waiting to be written, in order
+     */
+    private interface Pending
+    {
+        void write() throws IOException;
+    }
+
+
+    private static class Entry
+    {
+        final byte[] name;
+        final int time;
+        final int date;
+        long offset;
+        long crc;
+        long size;
+        long compressedSize;
+
+        Entry(String name, int time, int date)
+        {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.time = time;
+            this.date = date;
+        }
+    }
+
+
+    private final OutputStream out;
+    private final ExecutorService workers;
+    private final int maxPendingBlocks;
+    private final Map<String, Integer> levels = Maps.newLinkedHashMap();
+    private final List<Entry> entries = Lists.newArrayList();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+    private int pendingBlocks;
+    private long offset;
+    private boolean closed;
+
+
+    /**
+     * Creates an archiver writing into a stream
+     * @param out the stream to write the archive into. It is not closed by the archiver
+     * @param threads number of workers compressing blocks
+     */
+    public ParallelZipArchiver(OutputStream out, int threads)
+    {
+        if (threads <= 0)
+            throw new IllegalArgumentException(String.format("Threads: %s", threads));
+        this.out = out;
+        workers = Executors.newFixedThreadPool(threads);
+        maxPendingBlocks = 2 * threads;
+    }
+
+
+    /**
+     * Creates an archiver writing into a stream, with a worker per available processor
+     * @param out the stream to write the archive into. It is not closed by the archiver
+     */
+    public ParallelZipArchiver(OutputStream out)
+    {
+        this(out, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Sets the compression level of entries without a specific level
+     * @param level compression level, from Deflater.NO_COMPRESSION to Deflater.BEST_COMPRESSION,
+     *              or Deflater.DEFAULT_COMPRESSION
+     */
+    public void setDefaultLevel(int level)
+    {
+        checkLevel(level);
+        defaultLevel = level;
+    }
+
+
+    /**
+     * Sets the compression level of the entries whose name ends with the given suffix, eg. to
+     * store already compressed files or to favour speed for large text files
+     * @param suffix suffix of the entry names, eg. ".csv". The longest matching suffix is used
+     * @param level compression level, from Deflater.NO_COMPRESSION to Deflater.BEST_COMPRESSION,
+     *              or Deflater.DEFAULT_COMPRESSION
+     */
+    public void setLevel(String suffix, int level)
+    {
+        checkLevel(level);
+        levels.put(suffix, level);
+    }
+
+
+    private static void checkLevel(int level)
+    {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException(String.format("Compression level: %s", level));
+    }
+
+
+    /**
+     * Returns the compression level of an entry
+     * @param name name of the entry
+     * @return the compression level of the entry
+     */
+    public int getLevel(String name)
+    {
+        int level = defaultLevel;
+        int matched = -1;
+        for (Map.Entry<String, Integer> e : levels.entrySet())
+            if (name.endsWith(e.getKey()) && e.getKey().length() > matched)
+            {
+                level = e.getValue();
+                matched = e.getKey().length();
+            }
+        return level;
+    }
+
+
+    /**
+     * Adds an entry whose content is written by a function. The entry is completed, possibly
+     * truncated, even if the function fails
+     * @param name name of the entry
+     * @param writer function writing the content of the entry into the given stream. Closing the
+     *               stream has no effect
+     * @throws Exception if the writer or the archive fail
+     */
+    public void putEntry(String name, IDirectory.CheckedFunction<OutputStream, Void> writer) throws Exception
+    {
+        EntryStream stream = newEntry(name);
+        try
+        {
+            writer.apply(stream);
+        }
+        finally
+        {
+            stream.finish();
+        }
+    }
+
+
+    /**
+     * Adds an entry with the content of a stream
+     * @param name name of the entry
+     * @param in stream with the content of the entry, read until its end but not closed
+     * @throws IOException if the stream or the archive fail
+     */
+    public void putEntry(String name, InputStream in) throws IOException
+    {
+        EntryStream stream = newEntry(name);
+        try
+        {
+            stream.readFrom(in);
+        }
+        finally
+        {
+            stream.finish();
+        }
+    }
+
+
+    private EntryStream newEntry(String name) throws IOException
+    {
+        if (closed)
+            throw new IOException("Archiver closed");
+        if (entries.size() >= MAX_ZIP_ENTRIES)
+            throw new IOException(String.format("Too many zip entries: %s", entries.size() + 1));
+
+        Calendar now = Calendar.getInstance();
+        int time = (now.get(Calendar.HOUR_OF_DAY) << 11) | (now.get(Calendar.MINUTE) << 5) | (now.get(Calendar.SECOND) >> 1);
+        int date = ((now.get(Calendar.YEAR) - 1980) << 9) | ((now.get(Calendar.MONTH) + 1) << 5) | now.get(Calendar.DAY_OF_MONTH);
+        Entry entry = new Entry(name, time, date);
+        entries.add(entry);
+        pending.add(() -> writeLocalHeader(entry));
+        return new EntryStream(entry, getLevel(name));
+    }
+
+
+    /**
+     * Writes the pending parts of the archive until at most the given number of blocks are pending
+     */
+    private void drain(int maxBlocks) throws IOException
+    {
+        while (!pending.isEmpty() && (pendingBlocks > maxBlocks || maxBlocks == 0))
+            pending.poll().write();
+    }
+
+
+    private void writeLocalHeader(Entry entry) throws IOException
+    {
+        entry.offset = offset;
+        Header header = new Header(30 + entry.name.length);
+        header.putInt(0x04034b50);
+        header.putShort(VERSION);
+        header.putShort(FLAGS);
+        header.putShort(METHOD_DEFLATED);
+        header.putShort(entry.time);
+        header.putShort(entry.date);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort(entry.name.length);
+        header.putShort(0);
+        header.put(entry.name);
+        append(header.bytes);
+    }
+
+
+    private void writeDataDescriptor(Entry entry) throws IOException
+    {
+        if (entry.size > MAX_ZIP_SIZE || entry.compressedSize > MAX_ZIP_SIZE)
+            throw new IOException(String.format("Zip entry too large: %s bytes", entry.size));
+        Header header = new Header(16);
+        header.putInt(0x08074b50);
+        header.putInt(entry.crc);
+        header.putInt(entry.compressedSize);
+        header.putInt(entry.size);
+        append(header.bytes);
+    }
+
+
+    private void writeCentralDirectory() throws IOException
+    {
+        long start = offset;
+        for (Entry entry : entries)
+        {
+            Header header = new Header(46 + entry.name.length);
+            header.putInt(0x02014b50);
+            header.putShort(VERSION);
+            header.putShort(VERSION);
+            header.putShort(FLAGS);
+            header.putShort(METHOD_DEFLATED);
+            header.putShort(entry.time);
+            header.putShort(entry.date);
+            header.putInt(entry.crc);
+            header.putInt(entry.compressedSize);
+            header.putInt(entry.size);
+            header.putShort(entry.name.length);
+            header.putShort(0);
+            header.putShort(0);
+            header.putShort(0);
+            header.putShort(0);
+            header.putInt(0);
+            header.putInt(entry.offset);
+            header.put(entry.name);
+            append(header.bytes);
+        }
+
+        Header end = new Header(22);
+        end.putInt(0x06054b50);
+        end.putShort(0);
+        end.putShort(0);
+        end.putShort(entries.size());
+        end.putShort(entries.size());
+        end.putInt(offset - start);
+        end.putInt(start);
+        end.putShort(0);
+        append(end.bytes);
+    }
+
+
+    private void append(byte[] bytes) throws IOException
+    {
+        if (offset + bytes.length > MAX_ZIP_SIZE)
+            throw new IOException("Zip archive larger than 4 GB");
+        out.write(bytes);
+        offset += bytes.length;
+    }
+
+
+    /**
+     * Deflates a block into a raw deflate stream. Blocks but the last end with a sync flush, so
+     * that the next block can be appended
+     */
+    private static byte[] compress(byte[] data, int length, byte[] previous, int level, boolean last)
+    {
+        Deflater deflater = new Deflater(level, true);
+        try
+        {
+            if (previous != null)
+                deflater.setDictionary(previous, previous.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16384];
+            if (last)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            else
+            {
+                int count;
+                do
+                {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                }
+                while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+
+    /**
+     * Completes the archive by writing the pending blocks and the central directory. The workers
+     * are stopped and the underlying stream is flushed but not closed
+     * @throws IOException if the archive can't be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+        try
+        {
+            drain(0);
+            writeCentralDirectory();
+            out.flush();
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Stream buffering the content of an entry into blocks submitted to the workers
+     */
+    private class EntryStream extends OutputStream
+    {
+        private final Entry entry;
+        private final int level;
+        private final CRC32 crc = new CRC32();
+        private byte[] block = new byte[BLOCK_SIZE];
+        private byte[] previous;
+        private int count;
+        private long size;
+        private boolean finished;
+
+        EntryStream(Entry entry, int level)
+        {
+            this.entry = entry;
+            this.level = level;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (finished)
+                throw new IOException("Zip entry completed");
+            crc.update(b, off, len);
+            size += len;
+            while (len > 0)
+            {
+                if (count == block.length)
+                    submit(false);
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void readFrom(InputStream in) throws IOException
+        {
+            int n;
+            while (true)
+            {
+                if (count == block.length)
+                    submit(false);
+                n = in.read(block, count, block.length - count);
+                if (n < 0)
+                    break;
+                crc.update(block, count, n);
+                size += n;
+                count += n;
+            }
+        }
+
+        private void submit(boolean last) throws IOException
+        {
+            byte[] data = block;
+            int length = count;
+            byte[] dictionary = previous;
+            Future<byte[]> compressed = workers.submit(() -> compress(data, length, dictionary, level, last));
+            pending.add(() -> {
+                pendingBlocks--;
+                byte[] bytes;
+                try
+                {
+                    bytes = compressed.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while compressing", e);
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IOException("Compression failed", e.getCause());
+                }
+                append(bytes);
+                entry.compressedSize += bytes.length;
+            });
+            pendingBlocks++;
+            previous = data;
+            block = last? null : new byte[BLOCK_SIZE];
+            count = 0;
+            drain(maxPendingBlocks);
+        }
+
+        void finish() throws IOException
+        {
+            if (finished)
+                return;
+            finished = true;
+            entry.crc = crc.getValue();
+            entry.size = size;
+            submit(true);
+            pending.add(() -> writeDataDescriptor(entry));
+        }
+
+        @Override
+        public void close()
+        {
+            // entries are completed by the archiver
+        }
+    }
+
+
+    /**
+     * Little-endian header record
+     */
+    private static class Header
+    {
+        final byte[] bytes;
+        int position;
+
+        Header(int length)
+        {
+            bytes = new byte[length];
+        }
+
+        void putShort(int value)
+        {
+            bytes[position++] = (byte) value;
+            bytes[position++] = (byte) (value >> 8);
+        }
+
+        void putInt(long value)
+        {
+            putShort((int) value);
+            putShort((int) (value >> 16));
+        }
+
+        void put(byte[] value)
+        {
+            System.arraycopy(value, 0, bytes, position, value.length);
+            position += value.length;
+        }
+    }
+}
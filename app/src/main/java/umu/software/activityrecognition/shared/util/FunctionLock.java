@@ -8,7 +8,8 @@ import java.util.function.Supplier;
 
 
 /**
- * Lock to execute functions in a thread-safe way
+ * Lock to execute functions in a thread-safe way. The lock is released also when the function
+ * throws
  */
 public class FunctionLock
 {
@@ -48,9 +49,14 @@ public class FunctionLock
     public <T, R> R withLock(T input, Function<T, R> fun)
     {
         lock();
-        R result = fun.apply(input);
-        unlock();
-        return result;
+        try
+        {
+            return fun.apply(input);
+        }
+        finally
+        {
+            unlock();
+        }
     }
 
 
@@ -63,9 +69,14 @@ public class FunctionLock
     public <R> R withLock(Supplier<R> fun)
     {
         lock();
-        R result = fun.get();
-        unlock();
-        return result;
+        try
+        {
+            return fun.get();
+        }
+        finally
+        {
+            unlock();
+        }
     }
 
     /**
@@ -77,8 +88,14 @@ public class FunctionLock
     public <T> void withLock(T input, Consumer<T> fun)
     {
         lock();
-        fun.accept(input);
-        unlock();
+        try
+        {
+            fun.accept(input);
+        }
+        finally
+        {
+            unlock();
+        }
     }
 
 
@@ -91,8 +108,14 @@ public class FunctionLock
     public void withLock(Runnable fun)
     {
         lock();
-        fun.run();
-        unlock();
+        try
+        {
+            fun.run();
+        }
+        finally
+        {
+            unlock();
+        }
     }
 
 
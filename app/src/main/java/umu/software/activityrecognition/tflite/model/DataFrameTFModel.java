@@ -54,15 +54,7 @@ public abstract class DataFrameTFModel extends TFModel
     {
         DataFrame df = inputDataframes.get(tensorNum);
         assert df != null;
-
-        while(df.countRows() > getInputSequenceLength(tensorNum))
-            df.popFirstRow();
-
-        df.forEachRowArray(objects -> {
-            for (Object o : objects)
-                buffer.put(Float.parseFloat(o.toString()));
-            return null;
-        });
+        df.exportFloats(buffer, getInputSequenceLength(tensorNum));
     }
 
 
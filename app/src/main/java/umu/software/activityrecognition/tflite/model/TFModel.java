@@ -5,6 +5,8 @@ import com.google.common.collect.Maps;
 
 import org.tensorflow.lite.Interpreter;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -84,7 +86,9 @@ public abstract class TFModel
 
 
     /**
-     * Create a FloatBuffer for the specified input tensor
+     * Create a FloatBuffer for the specified input tensor. Input buffers are direct and in native
+     * byte order, so that the interpreter reads them without copying and off-heap columns are
+     * exported into them with native copies
      * @param tensorNum input tensor num
      * @return the created FloatBuffer
      */
@@ -94,7 +98,9 @@ public abstract class TFModel
         int size = getInputSize(tensorNum);
         int seq_len = getInputSequenceLength(tensorNum);
 
-        return FloatBuffer.allocate(size * seq_len);
+        return ByteBuffer.allocateDirect(size * seq_len * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
     }
 
 